@@ -0,0 +1,241 @@
+/* Copyright 2016 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.contrib.android;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Tests that runs with a deadline or a cancellation token return as soon as either fires, while
+ * the run itself is stuck, and that the timed-out and cancelled counters follow. The model's
+ * dequeue node blocks on an empty queue forever, so the outcome does not depend on timing. There
+ * is no test framework in this workspace, so this is a plain main that exits with a non-zero
+ * status on the first failed check.
+ */
+public final class RunDeadlineTest {
+  private static final String STUCK_OUTPUT = "dequeue";
+  private static final String CONSTANT_OUTPUT = "one";
+
+  private static final long TIMEOUT_MS = 100;
+
+  // Generous, as it only guards against waiting for the stuck run.
+  private static final long MAX_RETURN_MS = 10000;
+
+  private static final int DT_FLOAT = 1;
+
+  private RunDeadlineTest() {}
+
+  public static void main(final String[] args) throws InterruptedException {
+    System.loadLibrary("tensorflow_inference");
+
+    final TensorFlowInferenceInterface source = new TensorFlowInferenceInterface();
+    check(source.initializeTensorFlowFromBuffer(buildModel()) == 0, "model loaded");
+
+    // Every test gets its own context, as a stuck run keeps its context busy.
+    final TensorFlowInferenceInterface cancelledBefore = share(source);
+    final TensorFlowInferenceInterface timedOut = share(source);
+    final TensorFlowInferenceInterface cancelledDuring = share(source);
+    testCancelledBeforeRun(cancelledBefore);
+    testDeadlineExceeded(timedOut);
+    testCancelledWhileRunning(cancelledDuring);
+    testSessionStillUsable(source);
+
+    // Closing the last context closes the session, which aborts the stuck runs.
+    cancelledBefore.close();
+    timedOut.close();
+    cancelledDuring.close();
+    source.close();
+    System.out.println("RunDeadlineTest passed.");
+  }
+
+  private static void testCancelledBeforeRun(final TensorFlowInferenceInterface context) {
+    final CancellationToken token = new CancellationToken();
+    token.cancel();
+    check(context.runInference(new String[] {STUCK_OUTPUT}, 0, token)
+        == TensorFlowInferenceInterface.STATUS_CANCELLED, "cancelled before the run");
+    checkCounters(context, 0, 1);
+  }
+
+  private static void testDeadlineExceeded(final TensorFlowInferenceInterface context) {
+    final long startMs = System.currentTimeMillis();
+    final int status = context.runInference(new String[] {STUCK_OUTPUT}, TIMEOUT_MS, null);
+    final long elapsedMs = System.currentTimeMillis() - startMs;
+    check(status == TensorFlowInferenceInterface.STATUS_DEADLINE_EXCEEDED,
+        "deadline exceeded, got status " + status);
+    check(elapsedMs >= TIMEOUT_MS, "returned before the deadline after " + elapsedMs + "ms");
+    check(elapsedMs < MAX_RETURN_MS, "waited for the stuck run for " + elapsedMs + "ms");
+    checkCounters(context, 1, 0);
+
+    // The abandoned run is still executing, so further runs are refused rather than queued.
+    check(context.runPrepared(TIMEOUT_MS, null) == TensorFlowInferenceInterface.STATUS_UNAVAILABLE,
+        "run refused while the abandoned run executes");
+    checkCounters(context, 1, 0);
+  }
+
+  private static void testCancelledWhileRunning(final TensorFlowInferenceInterface context)
+      throws InterruptedException {
+    final CancellationToken token = new CancellationToken();
+    final Thread canceller = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(TIMEOUT_MS);
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        token.cancel();
+      }
+    });
+
+    final long startMs = System.currentTimeMillis();
+    canceller.start();
+    // Without a deadline only the token can end the wait.
+    final int status = context.runInference(new String[] {STUCK_OUTPUT}, 0, token);
+    final long elapsedMs = System.currentTimeMillis() - startMs;
+    canceller.join();
+    check(status == TensorFlowInferenceInterface.STATUS_CANCELLED,
+        "cancelled while running, got status " + status);
+    check(elapsedMs < MAX_RETURN_MS, "waited for the stuck run for " + elapsedMs + "ms");
+    checkCounters(context, 0, 1);
+  }
+
+  private static void testSessionStillUsable(final TensorFlowInferenceInterface context) {
+    check(context.runInference(new String[] {CONSTANT_OUTPUT}, MAX_RETURN_MS, null) == 0,
+        "run on the shared session after others were abandoned");
+    final float[] value = new float[1];
+    context.readNodeFloat(CONSTANT_OUTPUT, value);
+    check(value[0] == 1.0f, "constant output read, got " + value[0]);
+    checkCounters(context, 0, 0);
+  }
+
+  private static TensorFlowInferenceInterface share(final TensorFlowInferenceInterface source) {
+    final TensorFlowInferenceInterface context = new TensorFlowInferenceInterface();
+    check(context.initializeFromShared(source) == 0, "session shared");
+    return context;
+  }
+
+  private static void checkCounters(
+      final TensorFlowInferenceInterface context, final long timedOut, final long cancelled) {
+    check(context.getNumTimedOutRuns() == timedOut,
+        "expected " + timedOut + " timed-out runs, got " + context.getNumTimedOutRuns());
+    check(context.getNumCancelledRuns() == cancelled,
+        "expected " + cancelled + " cancelled runs, got " + context.getNumCancelledRuns());
+  }
+
+  /**
+   * Serializes a GraphDef with a FIFOQueue that is never filled, a dequeue from it and a float
+   * constant. Written by hand, as protobuf is not available to Java in this workspace.
+   */
+  private static ByteBuffer buildModel() {
+    final Proto floatList = new Proto().varint(6, DT_FLOAT); // AttrValue.ListValue.type
+    final Proto componentTypes = new Proto().message(1, floatList); // AttrValue.list
+
+    final Proto queue = node("queue", "FIFOQueue")
+        .message(5, attr("component_types", componentTypes));
+    final Proto dequeue = node(STUCK_OUTPUT, "QueueDequeue")
+        .string(3, "queue") // NodeDef.input
+        .message(5, attr("component_types", componentTypes));
+
+    final Proto tensor = new Proto()
+        .varint(1, DT_FLOAT) // TensorProto.dtype
+        .message(2, new Proto()) // TensorProto.tensor_shape, a scalar
+        .float32(5, 1.0f); // TensorProto.float_val
+    final Proto constant = node(CONSTANT_OUTPUT, "Const")
+        .message(5, attr("dtype", new Proto().varint(6, DT_FLOAT))) // AttrValue.type
+        .message(5, attr("value", new Proto().message(8, tensor))); // AttrValue.tensor
+
+    final byte[] graph = new Proto()
+        .message(1, queue) // GraphDef.node
+        .message(1, dequeue)
+        .message(1, constant)
+        .toByteArray();
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(graph.length);
+    buffer.put(graph);
+    return buffer;
+  }
+
+  private static Proto node(final String name, final String op) {
+    return new Proto().string(1, name).string(2, op); // NodeDef.name, NodeDef.op
+  }
+
+  // An entry of the NodeDef.attr map.
+  private static Proto attr(final String key, final Proto value) {
+    return new Proto().string(1, key).message(2, value);
+  }
+
+  /** Writes the protobuf wire format for the few field types the model needs. */
+  private static final class Proto {
+    private static final int WIRE_VARINT = 0;
+    private static final int WIRE_LENGTH_DELIMITED = 2;
+    private static final int WIRE_FIXED32 = 5;
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    Proto varint(final int field, final long value) {
+      writeVarint((field << 3) | WIRE_VARINT);
+      writeVarint(value);
+      return this;
+    }
+
+    Proto float32(final int field, final float value) {
+      writeVarint((field << 3) | WIRE_FIXED32);
+      final int bits = Float.floatToIntBits(value);
+      for (int shift = 0; shift < 32; shift += 8) {
+        bytes.write(bits >>> shift);
+      }
+      return this;
+    }
+
+    Proto string(final int field, final String value) {
+      return bytes(field, value.getBytes(Charset.forName("UTF-8")));
+    }
+
+    Proto message(final int field, final Proto value) {
+      return bytes(field, value.toByteArray());
+    }
+
+    private Proto bytes(final int field, final byte[] value) {
+      writeVarint((field << 3) | WIRE_LENGTH_DELIMITED);
+      writeVarint(value.length);
+      bytes.write(value, 0, value.length);
+      return this;
+    }
+
+    private void writeVarint(long value) {
+      while ((value & ~0x7fL) != 0) {
+        bytes.write((int) ((value & 0x7f) | 0x80));
+        value >>>= 7;
+      }
+      bytes.write((int) value);
+    }
+
+    byte[] toByteArray() {
+      return bytes.toByteArray();
+    }
+  }
+
+  private static void check(final boolean condition, final String message) {
+    if (!condition) {
+      fail(message);
+    }
+  }
+
+  private static void fail(final String message) {
+    System.err.println("FAILED: " + message);
+    System.exit(1);
+  }
+}
@@ -0,0 +1,53 @@
+/* Copyright 2016 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.contrib.android;
+
+/**
+ * A handle for abandoning a pending inference run, e.g. from the camera thread once a newer frame
+ * has arrived. Cancelling is thread-safe and cannot be undone; use a new token for each run.
+ */
+public final class CancellationToken {
+  private volatile boolean cancelled;
+
+  // The interface running with this token, woken up on cancel().
+  private volatile TensorFlowInferenceInterface attached;
+
+  /**
+   * Marks the run as no longer wanted. A caller waiting for the run returns STATUS_CANCELLED
+   * without waiting for it to finish.
+   */
+  public void cancel() {
+    cancelled = true;
+    final TensorFlowInferenceInterface inferenceInterface = attached;
+    if (inferenceInterface != null) {
+      inferenceInterface.cancelRun(this);
+    }
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  void attach(final TensorFlowInferenceInterface inferenceInterface) {
+    attached = inferenceInterface;
+  }
+
+  void detach(final TensorFlowInferenceInterface inferenceInterface) {
+    if (attached == inferenceInterface) {
+      attached = null;
+    }
+  }
+}
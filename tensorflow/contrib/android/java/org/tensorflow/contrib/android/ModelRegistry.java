@@ -0,0 +1,209 @@
+/* Copyright 2016 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.contrib.android;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Manages the native sessions of several models under a shared memory budget.
+ *
+ * Models are registered by key together with a loader and are only loaded on first use. Once the
+ * combined size of the loaded models exceeds the budget, the least recently used models that are
+ * not currently leased are closed. A model in use is never closed; it is evicted later if the
+ * budget is still exceeded when its last lease is released.
+ */
+public class ModelRegistry {
+  // java.util.logging rather than android.util.Log, so that this also works in host builds.
+  private static final Logger LOGGER = Logger.getLogger(ModelRegistry.class.getName());
+
+  /**
+   * Loads a model into a freshly created TensorFlowInferenceInterface, e.g. by calling one of its
+   * initializeTensorFlow methods.
+   */
+  public interface ModelLoader {
+    /**
+     * @return The native status returned by TensorFlow. 0 indicates success.
+     */
+    int load(TensorFlowInferenceInterface inferenceInterface);
+  }
+
+  /**
+   * Grants use of a loaded model until release() is called. Each lease has its own
+   * TensorFlowInferenceInterface attached to the model's shared session, so leases held on
+   * different threads do not share input and output state. A single lease is not thread-safe.
+   */
+  public final class Lease {
+    private final String key;
+    private final LoadedModel model;
+    private final TensorFlowInferenceInterface inferenceInterface;
+    private boolean released = false;
+
+    private Lease(
+        final String key,
+        final LoadedModel model,
+        final TensorFlowInferenceInterface inferenceInterface) {
+      this.key = key;
+      this.model = model;
+      this.inferenceInterface = inferenceInterface;
+    }
+
+    /**
+     * Returns this lease's context, which must not be used after release().
+     */
+    public TensorFlowInferenceInterface getInferenceInterface() {
+      return inferenceInterface;
+    }
+
+    public void release() {
+      synchronized (ModelRegistry.this) {
+        if (released) {
+          return;
+        }
+        released = true;
+        inferenceInterface.close();
+        --model.refCount;
+        evictToBudget(null);
+      }
+    }
+
+    public String getKey() {
+      return key;
+    }
+  }
+
+  private static final class LoadedModel {
+    final TensorFlowInferenceInterface inferenceInterface;
+    final long sizeBytes;
+    int refCount = 0;
+
+    LoadedModel(final TensorFlowInferenceInterface inferenceInterface, final long sizeBytes) {
+      this.inferenceInterface = inferenceInterface;
+      this.sizeBytes = sizeBytes;
+    }
+  }
+
+  private final long memoryBudgetBytes;
+  private final Map<String, ModelLoader> loaders = new HashMap<String, ModelLoader>();
+  // Access order makes iteration start at the least recently used model.
+  private final LinkedHashMap<String, LoadedModel> loadedModels =
+      new LinkedHashMap<String, LoadedModel>(16, 0.75f, true);
+  private long loadedBytes = 0;
+
+  /**
+   * @param memoryBudgetBytes The combined model size above which unused models are closed.
+   */
+  public ModelRegistry(final long memoryBudgetBytes) {
+    this.memoryBudgetBytes = memoryBudgetBytes;
+  }
+
+  public synchronized void register(final String key, final ModelLoader loader) {
+    loaders.put(key, loader);
+  }
+
+  /**
+   * Returns a lease on the model registered under key, loading it first if necessary. Loading
+   * happens while holding the registry lock, so concurrent acquires wait for it. The model is
+   * kept loaded in a context owned by the registry, which leases never see.
+   *
+   * @throws IllegalArgumentException If no model was registered under key.
+   * @throws IllegalStateException If the model could not be loaded.
+   */
+  public synchronized Lease acquire(final String key) {
+    LoadedModel model = loadedModels.get(key);
+    if (model == null) {
+      final ModelLoader loader = loaders.get(key);
+      if (loader == null) {
+        throw new IllegalArgumentException("No model registered for " + key);
+      }
+
+      final TensorFlowInferenceInterface inferenceInterface = new TensorFlowInferenceInterface();
+      final int status = loader.load(inferenceInterface);
+      if (status != 0) {
+        inferenceInterface.close();
+        throw new IllegalStateException("Loading " + key + " failed with status " + status);
+      }
+
+      model = new LoadedModel(inferenceInterface, inferenceInterface.getModelSizeBytes());
+      loadedModels.put(key, model);
+      loadedBytes += model.sizeBytes;
+      LOGGER.info("Loaded " + key + " (" + model.sizeBytes + " bytes), "
+          + loadedBytes + " of " + memoryBudgetBytes + " bytes in use");
+    }
+
+    // The context only references the native session, so this is cheap compared to loading.
+    final TensorFlowInferenceInterface leaseInterface = new TensorFlowInferenceInterface();
+    final int shareStatus = leaseInterface.initializeFromShared(model.inferenceInterface);
+    if (shareStatus != 0) {
+      leaseInterface.close();
+      throw new IllegalStateException(
+          "Attaching to " + key + " failed with status " + shareStatus);
+    }
+
+    ++model.refCount;
+    evictToBudget(key);
+    return new Lease(key, model, leaseInterface);
+  }
+
+  /**
+   * Closes unleased models, least recently used first, until the budget is met or only leased
+   * models remain.
+   *
+   * @param keep A key that must not be evicted, or null.
+   */
+  private void evictToBudget(final String keep) {
+    final Iterator<Map.Entry<String, LoadedModel>> it = loadedModels.entrySet().iterator();
+    while (loadedBytes > memoryBudgetBytes && it.hasNext()) {
+      final Map.Entry<String, LoadedModel> entry = it.next();
+      final LoadedModel model = entry.getValue();
+      if (model.refCount > 0 || entry.getKey().equals(keep)) {
+        continue;
+      }
+      it.remove();
+      loadedBytes -= model.sizeBytes;
+      model.inferenceInterface.close();
+      LOGGER.info("Evicted " + entry.getKey() + ", " + loadedBytes + " bytes in use");
+    }
+  }
+
+  /** Returns the keys of the currently loaded models, least recently used first. */
+  public synchronized List<String> getLoadedKeys() {
+    return new ArrayList<String>(loadedModels.keySet());
+  }
+
+  public synchronized long getLoadedBytes() {
+    return loadedBytes;
+  }
+
+  /**
+   * Closes every loaded model. Must only be called once all leases have been released.
+   */
+  public synchronized void close() {
+    for (final LoadedModel model : loadedModels.values()) {
+      if (model.refCount > 0) {
+        LOGGER.warning("Closing model with " + model.refCount + " outstanding leases.");
+      }
+      model.inferenceInterface.close();
+    }
+    loadedModels.clear();
+    loadedBytes = 0;
+  }
+}
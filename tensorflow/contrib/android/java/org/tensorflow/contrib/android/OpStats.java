@@ -0,0 +1,77 @@
+/* Copyright 2016 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.contrib.android;
+
+/**
+ * Accumulated cost of a single node, or of all nodes of one op type, over the runs profiled via
+ * TensorFlowInferenceInterface.enableProfiling().
+ */
+public final class OpStats {
+  private final String name;
+  private final long count;
+  private final long totalTimeUs;
+  private final long totalMemoryBytes;
+
+  public OpStats(
+      final String name, final long count, final long totalTimeUs, final long totalMemoryBytes) {
+    this.name = name;
+    this.count = count;
+    this.totalTimeUs = totalTimeUs;
+    this.totalMemoryBytes = totalMemoryBytes;
+  }
+
+  /**
+   * Parses one tab-separated line as produced by the native code.
+   */
+  static OpStats parse(final String line) {
+    final String[] fields = line.split("\t");
+    return new OpStats(
+        fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]), Long.parseLong(fields[3]));
+  }
+
+  /** The node name, or the op type when aggregated by type. */
+  public String getName() {
+    return name;
+  }
+
+  /** The number of times the node or op type was executed in profiled runs. */
+  public long getCount() {
+    return count;
+  }
+
+  public long getTotalTimeUs() {
+    return totalTimeUs;
+  }
+
+  public long getTotalMemoryBytes() {
+    return totalMemoryBytes;
+  }
+
+  public float getAverageTimeUs() {
+    return count > 0 ? (float) totalTimeUs / count : 0;
+  }
+
+  public float getAverageMemoryBytes() {
+    return count > 0 ? (float) totalMemoryBytes / count : 0;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%s: %d runs, avg %.1fus, avg %.0f bytes",
+        name, count, getAverageTimeUs(), getAverageMemoryBytes());
+  }
+}
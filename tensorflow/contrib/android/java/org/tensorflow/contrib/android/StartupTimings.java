@@ -0,0 +1,75 @@
+/* Copyright 2016 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.contrib.android;
+
+/**
+ * Startup and run timings of a native TensorFlow session, as returned by
+ * TensorFlowInferenceInterface.getStartupTimings(). All times are in microseconds.
+ */
+public final class StartupTimings {
+  // Number and order of values filled in by the native code.
+  static final int NUM_VALUES = 5;
+
+  private final long parseTimeUs;
+  private final long createTimeUs;
+  private final long firstRunTimeUs;
+  private final long steadyStateRunTimeUs;
+  private final long numRuns;
+
+  StartupTimings(final long[] timings) {
+    parseTimeUs = timings[0];
+    createTimeUs = timings[1];
+    firstRunTimeUs = timings[2];
+    steadyStateRunTimeUs = timings[3];
+    numRuns = timings[4];
+  }
+
+  /** Time spent reading and parsing the GraphDef. */
+  public long getParseTimeUs() {
+    return parseTimeUs;
+  }
+
+  /** Time spent in Session::Create. */
+  public long getCreateTimeUs() {
+    return createTimeUs;
+  }
+
+  /** Duration of the first run, including lazy allocations. 0 if nothing has run yet. */
+  public long getFirstRunTimeUs() {
+    return firstRunTimeUs;
+  }
+
+  /** Average duration of all runs after the first. 0 if fewer than two runs happened. */
+  public long getSteadyStateRunTimeUs() {
+    return steadyStateRunTimeUs;
+  }
+
+  /** Number of runs so far, including warm-up runs. */
+  public long getNumRuns() {
+    return numRuns;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "parse=%.1fms create=%.1fms firstRun=%.1fms steadyState=%.1fms runs=%d",
+        parseTimeUs / 1000.0f,
+        createTimeUs / 1000.0f,
+        firstRunTimeUs / 1000.0f,
+        steadyStateRunTimeUs / 1000.0f,
+        numRuns);
+  }
+}
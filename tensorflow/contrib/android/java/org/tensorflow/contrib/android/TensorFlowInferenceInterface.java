@@ -16,8 +16,15 @@ limitations under the License.
 package org.tensorflow.contrib.android;
 
 import android.content.res.AssetManager;
+import android.graphics.Bitmap;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * JNI wrapper class for the Tensorflow native code.
@@ -26,6 +33,19 @@ import java.util.Random;
  * for an example usage.
  * */
 public class TensorFlowInferenceInterface {
+  /** Status returned for a run that was cancelled through its CancellationToken. */
+  public static final int STATUS_CANCELLED = 1;
+
+  /** Status returned for a run that did not finish within its timeout. */
+  public static final int STATUS_DEADLINE_EXCEEDED = 4;
+
+  /** Status returned for a run with a timeout while an abandoned one is still executing. */
+  public static final int STATUS_UNAVAILABLE = 14;
+
+  /** Channel orders for fillNodeFromBitmap. */
+  public static final int CHANNEL_ORDER_RGB = 0;
+  public static final int CHANNEL_ORDER_BGR = 1;
+
   /**
    * A unique identifier used to associate the Java TensorFlowInferenceInterface
    * with its associated native variables.
@@ -34,6 +54,14 @@ public class TensorFlowInferenceInterface {
    */
   private final long id;
 
+  private final AtomicLong numTimedOutRuns = new AtomicLong();
+  private final AtomicLong numCancelledRuns = new AtomicLong();
+
+  // The token of the run in progress, so that a late cancel() of an earlier token cannot abandon
+  // a later run.
+  private final Object tokenLock = new Object();
+  private CancellationToken activeToken;
+
   public TensorFlowInferenceInterface() {
     id = new Random().nextLong();
   }
@@ -41,12 +69,43 @@ public class TensorFlowInferenceInterface {
   /**
    * Creates a native TensorFlow session for the given model.
    *
-   * @param assetManager The AssetManager to use to load the model file.
+   * @param assetManager The AssetManager to use to load the model file. May be null if the model
+   *     is not an asset, and must be null in host builds, which do not support assets.
    * @param model The filepath to the GraphDef proto representing the model.
    * @return The native status returned by TensorFlow. 0 indicates success.
    */
   public native int initializeTensorFlow(AssetManager assetManager, String model);
 
+  /**
+   * Creates a native TensorFlow session for a model stored on the filesystem. The file is
+   * memory-mapped and parsed directly from the mapping.
+   *
+   * @param modelPath The absolute path of the GraphDef proto representing the model.
+   * @return The native status returned by TensorFlow. 0 indicates success.
+   */
+  public native int initializeTensorFlowFromFile(String modelPath);
+
+  /**
+   * Creates a native TensorFlow session for a model already held in memory, for instance a
+   * MappedByteBuffer or a model downloaded at runtime. The buffer is not copied before parsing
+   * and may be released once this method returns.
+   *
+   * @param model A direct ByteBuffer whose entire capacity holds the GraphDef proto.
+   * @return The native status returned by TensorFlow. 0 indicates success.
+   */
+  public native int initializeTensorFlowFromBuffer(ByteBuffer model);
+
+  /**
+   * Attaches this object to the native session of an already initialized
+   * TensorFlowInferenceInterface instead of loading the model again. Both objects keep their own
+   * input and output state, so they may run inference concurrently from different threads. The
+   * shared session is released once every object using it has been closed.
+   *
+   * @param source An initialized TensorFlowInferenceInterface whose session should be shared.
+   * @return The native status returned by TensorFlow. 0 indicates success.
+   */
+  public native int initializeFromShared(TensorFlowInferenceInterface source);
+
   /**
    * Runs inference between the previously registered input nodes (via fillNode*)
    * and the requested output nodes. Output nodes can then be queried with the
@@ -57,6 +116,213 @@ public class TensorFlowInferenceInterface {
    */
   public native int runInference(String[] outputNames);
 
+  /**
+   * Binds the output nodes for subsequent runPrepared() calls, so that they do not have to be
+   * converted from Java strings on every run. Together with input tensors being reused by fillNode*
+   * calls of an unchanged type and shape, this lets steady-state inference run without heap
+   * allocations in the JNI layer.
+   *
+   * @param outputNames A list of output nodes which should be filled by each inference pass.
+   */
+  public native void prepareRun(String[] outputNames);
+
+  /**
+   * Runs inference between the previously registered input nodes and the output nodes bound by
+   * prepareRun(). Output nodes can then be queried with the readNode* methods.
+   *
+   * @return The native status returned by TensorFlow. 0 indicates success.
+   */
+  public native int runPrepared();
+
+  /**
+   * Like runInference(String[]), but with a deadline and a way to abandon the run, e.g. once a
+   * newer camera frame has superseded the one being processed.
+   *
+   * <p>The run executes on a native worker thread. If the timeout passes or the token is cancelled
+   * before it finishes, this returns STATUS_DEADLINE_EXCEEDED or STATUS_CANCELLED right away,
+   * without waiting for the run. An abandoned run cannot be interrupted, so it keeps executing in
+   * the background and its outputs are discarded when it finishes. Until then, further runs with a
+   * timeout on this object return STATUS_UNAVAILABLE immediately instead of queueing up behind a
+   * stuck model. The session itself stays usable, also for other objects sharing it.
+   *
+   * @param outputNames A list of output nodes which should be filled by the inference pass.
+   * @param timeoutMs The deadline for the run in milliseconds, or 0 for none.
+   * @param token Cancels the run when triggered. May be null.
+   * @return The native status returned by TensorFlow. 0 indicates success.
+   */
+  public int runInference(
+      final String[] outputNames, final long timeoutMs, final CancellationToken token) {
+    if (isCancelled(token)) {
+      return STATUS_CANCELLED;
+    }
+    attachToken(token);
+    try {
+      return checkRunStatus(runInferenceWithTimeout(outputNames, timeoutMs, token), token);
+    } finally {
+      detachToken(token);
+    }
+  }
+
+  private native int runInferenceWithTimeout(
+      String[] outputNames, long timeoutMs, CancellationToken token);
+
+  /**
+   * Like runPrepared(), but with a deadline and a cancellation token, which behave as described
+   * for runInference(String[], long, CancellationToken).
+   *
+   * @param timeoutMs The deadline for the run in milliseconds, or 0 for none.
+   * @param token Cancels the run when triggered. May be null.
+   * @return The native status returned by TensorFlow. 0 indicates success.
+   */
+  public int runPrepared(final long timeoutMs, final CancellationToken token) {
+    if (isCancelled(token)) {
+      return STATUS_CANCELLED;
+    }
+    attachToken(token);
+    try {
+      return checkRunStatus(runPreparedWithTimeout(timeoutMs, token), token);
+    } finally {
+      detachToken(token);
+    }
+  }
+
+  private native int runPreparedWithTimeout(long timeoutMs, CancellationToken token);
+
+  private void attachToken(final CancellationToken token) {
+    if (token != null) {
+      synchronized (tokenLock) {
+        activeToken = token;
+      }
+      token.attach(this);
+    }
+  }
+
+  private void detachToken(final CancellationToken token) {
+    if (token != null) {
+      token.detach(this);
+      synchronized (tokenLock) {
+        activeToken = null;
+      }
+    }
+  }
+
+  /**
+   * Called by a token on cancel(). Wakes up the caller waiting for the run, if the token still
+   * belongs to it.
+   */
+  void cancelRun(final CancellationToken token) {
+    synchronized (tokenLock) {
+      if (activeToken == token) {
+        cancelPendingRun();
+      }
+    }
+  }
+
+  private native void cancelPendingRun();
+
+  private boolean isCancelled(final CancellationToken token) {
+    if (token != null && token.isCancelled()) {
+      numCancelledRuns.incrementAndGet();
+      return true;
+    }
+    return false;
+  }
+
+  private int checkRunStatus(final int status, final CancellationToken token) {
+    if (status == STATUS_DEADLINE_EXCEEDED) {
+      numTimedOutRuns.incrementAndGet();
+      return status;
+    }
+    if (status == STATUS_CANCELLED) {
+      numCancelledRuns.incrementAndGet();
+      return status;
+    }
+    // A run that finished just as its token was cancelled is treated as cancelled as well.
+    if (status == 0 && isCancelled(token)) {
+      return STATUS_CANCELLED;
+    }
+    return status;
+  }
+
+  /**
+   * Returns the number of runs that returned STATUS_DEADLINE_EXCEEDED.
+   */
+  public long getNumTimedOutRuns() {
+    return numTimedOutRuns.get();
+  }
+
+  /**
+   * Returns the number of runs that were skipped or discarded because their token was cancelled.
+   */
+  public long getNumCancelledRuns() {
+    return numCancelledRuns.get();
+  }
+
+  /**
+   * Runs the graph several times so that lazy allocations and kernel setup happen before the
+   * first real inference. If inputs have already been filled via fillNode* and outputs requested
+   * via runInference, those are used. Otherwise every Placeholder with a static shape is fed
+   * zeros, with unknown dimensions assumed to be 1, and all terminal nodes of the graph are run.
+   *
+   * @param iterations The number of warm-up runs.
+   * @return The native status returned by TensorFlow. 0 indicates success.
+   */
+  public native int warmUp(int iterations);
+
+  /**
+   * Returns the time spent loading the model and running it so far.
+   */
+  public StartupTimings getStartupTimings() {
+    final long[] timings = new long[StartupTimings.NUM_VALUES];
+    readStartupTimingsUs(timings);
+    return new StartupTimings(timings);
+  }
+
+  private native void readStartupTimingsUs(long[] timings);
+
+  /**
+   * Returns the serialized size of the loaded graph in bytes. As the weights dominate it, this is
+   * a lower bound for the native memory held by the session. 0 if no model is loaded.
+   */
+  public native long getModelSizeBytes();
+
+  /**
+   * Enables per-op profiling. Every interval-th call to runInference is traced and its step
+   * stats are accumulated, which slows that run down somewhat. Calling this again resets the
+   * accumulated stats.
+   *
+   * @param interval Trace every interval-th run, or pass 0 to disable profiling.
+   */
+  public native void enableProfiling(int interval);
+
+  /**
+   * Returns a human-readable summary of the profiled runs, sorted by time and by memory.
+   */
+  public native String getProfileSummary();
+
+  /**
+   * Returns the accumulated cost of the profiled runs, most expensive first.
+   *
+   * @param byType If true, aggregate by op type (e.g. Conv2D), otherwise report every node.
+   */
+  public List<OpStats> getOpStats(final boolean byType) {
+    final List<OpStats> stats = new ArrayList<OpStats>();
+    for (final String line : readOpStats(byType).split("\n")) {
+      if (!line.isEmpty()) {
+        stats.add(OpStats.parse(line));
+      }
+    }
+    Collections.sort(stats, new Comparator<OpStats>() {
+      @Override
+      public int compare(final OpStats lhs, final OpStats rhs) {
+        return Long.compare(rhs.getTotalTimeUs(), lhs.getTotalTimeUs());
+      }
+    });
+    return stats;
+  }
+
+  private native String readOpStats(boolean byType);
+
   /**
    * Cleans up the native variables associated with this Object. initializeTensorFlow() can then
    * be called again to initialize a new session.
@@ -68,8 +334,31 @@ public class TensorFlowInferenceInterface {
   public native void fillNodeFloat(String inputName, int x, int y, int z, int d, float[] values);
   public native void fillNodeInt(String inputName, int x, int y, int z, int d, int[] values);
   public native void fillNodeDouble(String inputName, int x, int y, int z, int d, double[] values);
+  // Fills a DT_UINT8 tensor, e.g. with raw RGB pixels. Bytes are reinterpreted as unsigned.
+  public native void fillNodeByte(String inputName, int x, int y, int z, int d, byte[] values);
+
+  /**
+   * Fills a [1, height, width, 3] float tensor straight from the pixels of an ARGB_8888 bitmap,
+   * computing (value - mean) / std for each channel and dropping alpha. This avoids copying the
+   * image into Java arrays and normalizing it there. Only available on Android.
+   *
+   * @param inputName The name of the input node.
+   * @param bitmap An ARGB_8888 bitmap of the input size.
+   * @param mean The value subtracted from each channel.
+   * @param std The value each channel is divided by after subtracting the mean.
+   * @param channelOrder CHANNEL_ORDER_RGB or CHANNEL_ORDER_BGR.
+   * @return The native status returned by TensorFlow. 0 indicates success.
+   */
+  public native int fillNodeFromBitmap(
+      String inputName, Bitmap bitmap, float mean, float std, int channelOrder);
 
   public native void readNodeFloat(String outputName, float[] values);
   public native void readNodeInt(String outputName, int[] values);
   public native void readNodeDouble(String outputName, double[] values);
+  // Reads a DT_UINT8 tensor. Values above 127 appear as negative bytes.
+  public native void readNodeByte(String outputName, byte[] values);
+  // Reads a DT_INT64 tensor.
+  public native void readNodeLong(String outputName, long[] values);
+  // Reads a DT_BOOL tensor.
+  public native void readNodeBoolean(String outputName, boolean[] values);
 }
@@ -0,0 +1,148 @@
+/* Copyright 2016 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.contrib.android;
+
+import android.content.res.AssetManager;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A fixed-size pool of TensorFlowInferenceInterface objects backed by a single native session.
+ *
+ * The model is loaded only once. Each pooled object keeps its own feeds and fetches, so callers
+ * on different threads can each acquire one, fill its inputs, run inference and read its outputs
+ * concurrently. Objects must be returned with release() once their outputs have been read.
+ */
+public class TensorFlowInferencePool {
+  private final TensorFlowInferenceInterface[] contexts;
+  private final BlockingQueue<TensorFlowInferenceInterface> available;
+
+  private boolean initialized = false;
+
+  /**
+   * @param size The number of run contexts to hand out, typically the number of cores.
+   */
+  public TensorFlowInferencePool(final int size) {
+    if (size < 1) {
+      throw new IllegalArgumentException("Pool size must be positive, got " + size);
+    }
+    contexts = new TensorFlowInferenceInterface[size];
+    for (int i = 0; i < size; ++i) {
+      contexts[i] = new TensorFlowInferenceInterface();
+    }
+    available = new ArrayBlockingQueue<TensorFlowInferenceInterface>(size);
+  }
+
+  /**
+   * Loads the model once and shares the resulting session with every context in the pool.
+   *
+   * @param assetManager The AssetManager to use to load the model file.
+   * @param model The filepath to the GraphDef proto representing the model.
+   * @return The native status returned by TensorFlow. 0 indicates success.
+   */
+  public synchronized int initializeTensorFlow(
+      final AssetManager assetManager, final String model) {
+    if (initialized) {
+      return 0;
+    }
+    return shareSession(contexts[0].initializeTensorFlow(assetManager, model));
+  }
+
+  /**
+   * Loads the model from the filesystem once and shares the resulting session with every context
+   * in the pool.
+   *
+   * @param modelPath The absolute path of the GraphDef proto representing the model.
+   * @return The native status returned by TensorFlow. 0 indicates success.
+   */
+  public synchronized int initializeTensorFlowFromFile(final String modelPath) {
+    if (initialized) {
+      return 0;
+    }
+    return shareSession(contexts[0].initializeTensorFlowFromFile(modelPath));
+  }
+
+  /**
+   * Loads the model from memory once and shares the resulting session with every context in the
+   * pool.
+   *
+   * @param model A direct ByteBuffer whose entire capacity holds the GraphDef proto.
+   * @return The native status returned by TensorFlow. 0 indicates success.
+   */
+  public synchronized int initializeTensorFlowFromBuffer(final ByteBuffer model) {
+    if (initialized) {
+      return 0;
+    }
+    return shareSession(contexts[0].initializeTensorFlowFromBuffer(model));
+  }
+
+  /**
+   * Attaches the remaining contexts to the session loaded by the first one.
+   *
+   * @param status The status of loading the model into the first context.
+   * @return The first non-zero native status, or 0 if every context was initialized.
+   */
+  private int shareSession(final int status) {
+    if (status != 0) {
+      return status;
+    }
+    for (int i = 1; i < contexts.length; ++i) {
+      final int shareStatus = contexts[i].initializeFromShared(contexts[0]);
+      if (shareStatus != 0) {
+        return shareStatus;
+      }
+    }
+    for (final TensorFlowInferenceInterface context : contexts) {
+      available.add(context);
+    }
+    initialized = true;
+    return 0;
+  }
+
+  /**
+   * Takes a context from the pool, waiting until one is available.
+   */
+  public TensorFlowInferenceInterface acquire() throws InterruptedException {
+    return available.take();
+  }
+
+  /**
+   * Returns a context obtained from acquire() to the pool.
+   */
+  public void release(final TensorFlowInferenceInterface context) {
+    if (!available.offer(context)) {
+      throw new IllegalStateException("Context released more often than acquired.");
+    }
+  }
+
+  public int size() {
+    return contexts.length;
+  }
+
+  /**
+   * Closes every context. The native session is freed together with the last one, so this must
+   * only be called once no context is in use anymore.
+   */
+  public synchronized void close() {
+    available.clear();
+    for (final TensorFlowInferenceInterface context : contexts) {
+      context.close();
+    }
+    initialized = false;
+  }
+}
@@ -15,10 +15,19 @@ limitations under the License.
 
 #include "tensorflow/contrib/android/jni/jni_utils.h"
 
+#ifdef __ANDROID__
 #include <android/asset_manager.h>
 #include <android/asset_manager_jni.h>
+#endif  // __ANDROID__
+#include <errno.h>
+#include <fcntl.h>
 #include <jni.h>
 #include <stdlib.h>
+#include <string.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
+#include <sys/time.h>
+#include <unistd.h>
 
 #include <fstream>
 #include <sstream>
@@ -29,7 +38,7 @@ limitations under the License.
 #include "google/protobuf/io/zero_copy_stream_impl.h"
 #include "google/protobuf/io/zero_copy_stream_impl_lite.h"
 #include "google/protobuf/message_lite.h"
-#include "tensorflow/contrib/android/jni/limiting_file_input_stream.h"
+#include "tensorflow/core/lib/core/errors.h"
 #include "tensorflow/core/platform/logging.h"
 
 static const char* const ASSET_PREFIX = "file:///android_asset/";
@@ -53,6 +62,50 @@ class IfstreamInputStream : public ::google::protobuf::io::CopyingInputStream {
   std::ifstream ifs_;
 };
 
+// Parses a message from a contiguous block of memory. Unlike
+// MessageLite::ParseFromArray, this allows messages larger than 64MB.
+bool ParseFromBuffer(const void* const data, const tensorflow::int64 length,
+                     google::protobuf::MessageLite* message) {
+  ::google::protobuf::io::ArrayInputStream array_stream(data, length);
+  ::google::protobuf::io::CodedInputStream coded_stream(&array_stream);
+  // Total bytes hard limit / warning limit are set to 1GB and 512MB
+  // respectively.
+  coded_stream.SetTotalBytesLimit(1024LL << 20, 512LL << 20);
+  return message->ParseFromCodedStream(&coded_stream);
+}
+
+// Maps [offset, offset + length) of the file descriptor read-only and parses
+// the message from the mapping.
+tensorflow::Status ParseMappedRegion(const int fd, const off_t offset,
+                                     const off_t length,
+                                     const char* const name,
+                                     google::protobuf::MessageLite* message) {
+  // mmap offsets must be page aligned, while asset offsets within the APK are
+  // arbitrary.
+  const off_t page_size = sysconf(_SC_PAGESIZE);
+  const off_t aligned_offset = offset - (offset % page_size);
+  const size_t map_length = length + (offset - aligned_offset);
+
+  void* const mapped =
+      mmap(nullptr, map_length, PROT_READ, MAP_PRIVATE, fd, aligned_offset);
+  if (mapped == MAP_FAILED) {
+    return tensorflow::errors::Unavailable("Could not mmap ", name, ": ",
+                                           strerror(errno));
+  }
+  // The serialized graph is read front to back exactly once.
+  madvise(mapped, map_length, MADV_SEQUENTIAL);
+
+  const bool parsed = ParseFromBuffer(
+      static_cast<const char*>(mapped) + (offset - aligned_offset), length,
+      message);
+  munmap(mapped, map_length);
+
+  if (!parsed) {
+    return tensorflow::errors::DataLoss("Could not parse ", name);
+  }
+  return tensorflow::Status::OK();
+}
+
 }  // namespace
 
 bool PortableReadFileToProto(const std::string& file_name,
@@ -75,54 +128,131 @@ bool IsAsset(const char* const filename) {
   return strstr(filename, ASSET_PREFIX) == filename;
 }
 
-void ReadFileToProtoOrDie(AAssetManager* const asset_manager,
-                          const char* const filename,
-                          google::protobuf::MessageLite* message) {
-  if (!IsAsset(filename)) {
-    VLOG(0) << "Opening file: " << filename;
-    CHECK(PortableReadFileToProto(filename, message));
-    return;
+tensorflow::Status MemoryMappedFileToProto(
+    const char* const filename, google::protobuf::MessageLite* message) {
+  int fd;
+  do {
+    fd = open(filename, O_RDONLY);
+  } while (fd < 0 && errno == EINTR);
+  if (fd < 0) {
+    return tensorflow::errors::NotFound("Could not open ", filename, ": ",
+                                        strerror(errno));
+  }
+
+  struct stat file_stat;
+  if (fstat(fd, &file_stat) != 0) {
+    close(fd);
+    return tensorflow::errors::Internal("Could not stat ", filename, ": ",
+                                        strerror(errno));
+  }
+
+  VLOG(0) << "Opening file " << filename << " with mmap.";
+  const tensorflow::Status s =
+      ParseMappedRegion(fd, 0, file_stat.st_size, filename, message);
+  close(fd);
+  return s;
+}
+
+tensorflow::Status ParseProtoFromBuffer(
+    const void* const data, const tensorflow::int64 length,
+    google::protobuf::MessageLite* message) {
+  if (data == nullptr) {
+    return tensorflow::errors::InvalidArgument("Buffer is not direct.");
+  }
+  if (!ParseFromBuffer(data, length, message)) {
+    return tensorflow::errors::DataLoss("Could not parse buffer of ", length,
+                                        " bytes");
   }
+  return tensorflow::Status::OK();
+}
+
+namespace {
 
-  CHECK_NOTNULL(asset_manager);
+// Filesystem backend, available on every platform.
+tensorflow::Status ReadRegularFileToProto(
+    const char* const filename, google::protobuf::MessageLite* message) {
+  tensorflow::Status s = MemoryMappedFileToProto(filename, message);
+  if (s.code() == tensorflow::error::UNAVAILABLE) {
+    // Some filesystems do not support mmap, fall back to streaming.
+    VLOG(0) << s << ", streaming " << filename << " instead.";
+    if (!PortableReadFileToProto(filename, message)) {
+      return tensorflow::errors::DataLoss("Could not read ", filename);
+    }
+    return tensorflow::Status::OK();
+  }
+  return s;
+}
+
+#ifdef __ANDROID__
+// Android backend reading files packaged as assets of the APK.
+tensorflow::Status ReadAssetToProto(AAssetManager* const asset_manager,
+                                    const char* const filename,
+                                    google::protobuf::MessageLite* message) {
+  if (asset_manager == nullptr) {
+    return tensorflow::errors::InvalidArgument(
+        "An AssetManager is required to read ", filename);
+  }
 
   const char* const asset_filename = filename + strlen(ASSET_PREFIX);
   AAsset* asset =
       AAssetManager_open(asset_manager, asset_filename, AASSET_MODE_STREAMING);
-  CHECK_NOTNULL(asset);
+  if (asset == nullptr) {
+    return tensorflow::errors::NotFound("Could not open asset ",
+                                        asset_filename);
+  }
 
+  tensorflow::Status s;
   off_t start;
   off_t length;
   const int fd = AAsset_openFileDescriptor(asset, &start, &length);
 
   if (fd >= 0) {
-    ::tensorflow::android::LimitingFileInputStream is(fd, start + length);
-    google::protobuf::io::CopyingInputStreamAdaptor adaptor(&is);
-    // If the file is smaller than protobuf's default limit, avoid copies.
-    if (length < (64 * 1024 * 1024)) {
-      // If it has a file descriptor that means it can be memmapped directly
-      // from the APK.
-      VLOG(0) << "Opening asset " << asset_filename
-              << " from disk with zero-copy.";
-      adaptor.Skip(start);
-      CHECK(message->ParseFromZeroCopyStream(&adaptor));
-    } else {
-      ::google::protobuf::io::CodedInputStream coded_stream(&adaptor);
-      // Total bytes hard limit / warning limit are set to 1GB and 512MB
-      // respectively.
-      coded_stream.SetTotalBytesLimit(1024LL << 20, 512LL << 20);
-      coded_stream.Skip(start);
-      CHECK(message->ParseFromCodedStream(&coded_stream));
-    }
+    // If it has a file descriptor the asset is stored uncompressed, so it can
+    // be memmapped directly from the APK.
+    VLOG(0) << "Opening asset " << asset_filename << " from disk with mmap.";
+    s = ParseMappedRegion(fd, start, length, asset_filename, message);
+    close(fd);
   } else {
     // It may be compressed, in which case we have to uncompress
     // it to memory first.
     VLOG(0) << "Opening asset " << asset_filename << " from disk with copy.";
     const off_t data_size = AAsset_getLength(asset);
     const void* const memory = AAsset_getBuffer(asset);
-    CHECK(message->ParseFromArray(memory, data_size));
+    if (memory == nullptr) {
+      s = tensorflow::errors::DataLoss("Could not decompress asset ",
+                                       asset_filename);
+    } else if (!ParseFromBuffer(memory, data_size, message)) {
+      s = tensorflow::errors::DataLoss("Could not parse asset ",
+                                       asset_filename);
+    }
   }
   AAsset_close(asset);
+  return s;
+}
+#else
+tensorflow::Status ReadAssetToProto(AAssetManager* const asset_manager,
+                                    const char* const filename,
+                                    google::protobuf::MessageLite* message) {
+  return tensorflow::errors::Unimplemented(
+      "Assets are only available on Android, can not read ", filename);
+}
+#endif  // __ANDROID__
+
+}  // namespace
+
+tensorflow::Status ReadFileToProto(AAssetManager* const asset_manager,
+                                   const char* const filename,
+                                   google::protobuf::MessageLite* message) {
+  if (IsAsset(filename)) {
+    return ReadAssetToProto(asset_manager, filename, message);
+  }
+  return ReadRegularFileToProto(filename, message);
+}
+
+void ReadFileToProtoOrDie(AAssetManager* const asset_manager,
+                          const char* const filename,
+                          google::protobuf::MessageLite* message) {
+  TF_CHECK_OK(ReadFileToProto(asset_manager, filename, message));
 }
 
 std::string GetString(JNIEnv* env, jstring java_string) {
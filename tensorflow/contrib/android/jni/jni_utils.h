@@ -20,6 +20,7 @@ limitations under the License.
 #include <string>
 #include <vector>
 
+#include "tensorflow/core/lib/core/status.h"
 #include "tensorflow/core/platform/macros.h"
 #include "tensorflow/core/platform/protobuf.h"
 #include "tensorflow/core/platform/types.h"
@@ -30,11 +31,30 @@ bool PortableReadFileToProto(const std::string& file_name,
                              ::google::protobuf::MessageLite* proto)
     TF_MUST_USE_RESULT;
 
-// Deserializes the contents of a file into memory.
+// Deserializes the contents of a file into memory. Filenames starting with
+// file:///android_asset/ are read from the APK via the asset manager, which is
+// only supported on Android. Anything else is memory-mapped from the
+// filesystem, and asset_manager may be null.
+tensorflow::Status ReadFileToProto(AAssetManager* const asset_manager,
+                                   const char* const filename,
+                                   google::protobuf::MessageLite* message);
+
+// As above, but aborts on failure.
 void ReadFileToProtoOrDie(AAssetManager* const asset_manager,
                           const char* const filename,
                           google::protobuf::MessageLite* message);
 
+// Deserializes a file by parsing directly from a read-only memory mapping of
+// it, avoiding an intermediate heap copy of the serialized bytes.
+tensorflow::Status MemoryMappedFileToProto(
+    const char* const filename, google::protobuf::MessageLite* message);
+
+// Deserializes a proto from a caller-owned block of memory, such as the
+// contents of a direct java.nio.ByteBuffer.
+tensorflow::Status ParseProtoFromBuffer(const void* const data,
+                                        const tensorflow::int64 length,
+                                        google::protobuf::MessageLite* message);
+
 std::string GetString(JNIEnv* env, jstring java_string);
 
 tensorflow::int64 CurrentWallTimeUs();
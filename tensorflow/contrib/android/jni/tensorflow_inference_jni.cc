@@ -15,20 +15,27 @@ limitations under the License.
 
 #include "tensorflow/contrib/android/jni/tensorflow_inference_jni.h"
 
+#ifdef __ANDROID__
 #include <android/asset_manager.h>
 #include <android/asset_manager_jni.h>
 #include <android/bitmap.h>
+#endif  // __ANDROID__
 
 #include <jni.h>
 #include <pthread.h>
 #include <sys/stat.h>
 #include <unistd.h>
 #include <map>
+#include <memory>
 #include <queue>
+#include <set>
 #include <sstream>
 #include <string>
 
 #include "tensorflow/contrib/android/jni/jni_utils.h"
+#include "tensorflow/core/framework/attr_value.pb.h"
+#include "tensorflow/core/framework/graph.pb.h"
+#include "tensorflow/core/framework/node_def.pb.h"
 #include "tensorflow/core/framework/step_stats.pb.h"
 #include "tensorflow/core/framework/tensor.h"
 #include "tensorflow/core/framework/types.pb.h"
@@ -42,20 +49,79 @@ limitations under the License.
 
 using namespace tensorflow;
 
-typedef std::map<std::string, std::pair<std::string, tensorflow::Tensor> >
-    InputMap;
+// Feeds in the form expected by Session::Run. Entries are looked up by name
+// with a linear scan, as graphs rarely have more than a handful of inputs.
+typedef std::vector<std::pair<std::string, tensorflow::Tensor> > InputList;
+
+// Accumulated cost of a node, or of all nodes of one op type, over the
+// profiled runs.
+struct OpStats {
+  int64 count = 0;
+  int64 total_us = 0;
+  int64 memory_bytes = 0;
+};
+
+// A run executed on a worker thread, so that its caller can stop waiting for
+// it. Shared by the worker and the caller, as either may be done with it first.
+struct PendingRun {
+  tensorflow::mutex mu;
+  tensorflow::condition_variable cv;
+  bool done GUARDED_BY(mu) = false;
+  bool cancelled GUARDED_BY(mu) = false;
+
+  // Written by the worker before it sets done.
+  tensorflow::Status status;
+  std::vector<tensorflow::Tensor> outputs;
+  tensorflow::RunMetadata run_metadata;
+  int64 elapsed_us = 0;
+};
 
 // Variables associated with a single TF session.
 struct SessionVariables {
-  std::unique_ptr<tensorflow::Session> session;
+  // May be shared with other SessionVariables via initializeFromShared, in
+  // which case the session is closed when its last user is closed.
+  std::shared_ptr<tensorflow::Session> session;
+  // Shared by the objects using the session, but unlike the session not by
+  // runs still executing on worker threads. Closing the last object therefore
+  // closes the session, which aborts any such run that is stuck.
+  std::shared_ptr<int> session_users;
 
   long id = -1;  // Copied from Java field for convenience.
   int num_runs = 0;
   int64 timing_total_us = 0;
 
-  InputMap input_tensors;
+  // Startup timings reported by getStartupTimings().
+  int64 parse_time_us = 0;
+  int64 create_time_us = 0;
+  int64 first_run_time_us = 0;
+
+  // Serialized size of the graph, dominated by its weights.
+  int64 graph_size_bytes = 0;
+
+  // Zero-valued placeholder feeds and terminal nodes of the graph, used by
+  // warmUp() when no inputs have been filled yet.
+  std::vector<std::pair<std::string, tensorflow::Tensor> > warmup_feeds;
+  std::vector<std::string> warmup_targets;
+
+  // Names and ops of the graph's nodes, kept for profiling after the GraphDef
+  // itself has been cleared.
+  std::shared_ptr<const tensorflow::GraphDef> graph_outline;
+
+  // Every profiling_interval-th run is traced when profiling is enabled.
+  int profiling_interval = 0;
+  std::unique_ptr<tensorflow::StatSummarizer> stat_summarizer;
+  std::map<std::string, OpStats> node_stats;
+
+  // Input tensors persist across runs and are overwritten in place by
+  // subsequent fills of the same type and shape.
+  InputList input_tensors;
   std::vector<std::string> output_tensor_names;
   std::vector<tensorflow::Tensor> output_tensors;
+
+  // The last run started with a deadline. Once abandoned it may still be
+  // executing and reading the input tensors. Guarded by mutex_, as
+  // cancelPendingRun() reads it from other threads.
+  std::shared_ptr<PendingRun> pending_run;
 };
 
 static tensorflow::mutex mutex_(tensorflow::LINKER_INITIALIZED);
@@ -66,12 +132,16 @@ std::map<int64, SessionVariables*>* GetSessionsSingleton() {
   return sessions;
 }
 
-inline static SessionVariables* GetSessionVars(JNIEnv* env, jobject thiz) {
+inline static int64 GetSessionId(JNIEnv* env, jobject thiz) {
   jclass clazz = env->GetObjectClass(thiz);
   assert(clazz != nullptr);
   jfieldID fid = env->GetFieldID(clazz, "id", "J");
   assert(fid != nullptr);
-  const int64 id = env->GetLongField(thiz, fid);
+  return env->GetLongField(thiz, fid);
+}
+
+inline static SessionVariables* GetSessionVars(JNIEnv* env, jobject thiz) {
+  const int64 id = GetSessionId(env, thiz);
 
   // This method is thread-safe as we support working with multiple
   // sessions simultaneously. However care must be taken at the calling
@@ -89,64 +159,239 @@ inline static SessionVariables* GetSessionVars(JNIEnv* env, jobject thiz) {
   return sessions[id];
 }
 
-JNIEXPORT jint JNICALL TENSORFLOW_METHOD(initializeTensorFlow)(
-    JNIEnv* env, jobject thiz, jobject java_asset_manager, jstring model) {
-  SessionVariables* vars = GetSessionVars(env, thiz);
+// Records the duration of a single Session::Run call.
+static void RecordRun(SessionVariables* vars, const int64 elapsed_us) {
+  if (vars->num_runs == 0) {
+    vars->first_run_time_us = elapsed_us;
+  }
+  ++(vars->num_runs);
+  vars->timing_total_us += elapsed_us;
+}
 
-  if (vars->session.get() != nullptr) {
-    LOG(INFO) << "Compute graph already loaded. skipping.";
-    return 0;
+// Adds the per-node timings and allocations of a traced run to the profile.
+static void ProcessStepStats(SessionVariables* vars,
+                             const tensorflow::StepStats& step_stats) {
+  if (vars->stat_summarizer != nullptr) {
+    vars->stat_summarizer->ProcessStepStats(step_stats);
+  }
+  for (const auto& dev_stats : step_stats.dev_stats()) {
+    for (const auto& node_stats : dev_stats.node_stats()) {
+      OpStats* stats = &vars->node_stats[node_stats.node_name()];
+      ++(stats->count);
+      stats->total_us += node_stats.all_end_rel_micros();
+      for (const auto& memory : node_stats.memory()) {
+        stats->memory_bytes += memory.total_bytes();
+      }
+    }
   }
+}
 
-  const int64 start_time = CurrentWallTimeUs();
+// Synthesizes zero-valued feeds for every Placeholder with a known rank and
+// collects the nodes whose outputs are not consumed by any other node, so that
+// warmUp() can exercise the whole graph without knowledge of the model.
+static void PrepareWarmUp(const tensorflow::GraphDef& graph,
+                          SessionVariables* vars) {
+  vars->warmup_feeds.clear();
+  vars->warmup_targets.clear();
+
+  std::set<std::string> consumed;
+  for (const tensorflow::NodeDef& node : graph.node()) {
+    for (const std::string& input : node.input()) {
+      // Strip the control dependency marker and the output index.
+      const std::string name = input.substr(input[0] == '^' ? 1 : 0);
+      consumed.insert(name.substr(0, name.find(':')));
+    }
+  }
 
-  const std::string model_str = GetString(env, model);
+  for (const tensorflow::NodeDef& node : graph.node()) {
+    if (consumed.find(node.name()) == consumed.end()) {
+      vars->warmup_targets.push_back(node.name());
+    }
+    if (node.op() != "Placeholder") {
+      continue;
+    }
 
-  LOG(INFO) << "Loading Tensorflow.";
+    const auto dtype = node.attr().find("dtype");
+    const auto shape = node.attr().find("shape");
+    if (dtype == node.attr().end() || shape == node.attr().end() ||
+        shape->second.shape().unknown_rank()) {
+      LOG(WARNING) << "Placeholder " << node.name()
+                   << " has no static shape, fill it before warmUp().";
+      continue;
+    }
+
+    tensorflow::TensorShape tensor_shape;
+    for (const auto& dim : shape->second.shape().dim()) {
+      // Unknown dimensions, usually the batch size, are assumed to be 1.
+      tensor_shape.AddDim(dim.size() < 0 ? 1 : dim.size());
+    }
+
+    tensorflow::Tensor tensor(dtype->second.type(), tensor_shape);
+    switch (dtype->second.type()) {
+#define ZERO_FILL_CASE(TENSOR_DTYPE, TYPE) \
+  case TENSOR_DTYPE:                        \
+    tensor.flat<TYPE>().setZero();          \
+    break;
+      ZERO_FILL_CASE(tensorflow::DT_FLOAT, float)
+      ZERO_FILL_CASE(tensorflow::DT_DOUBLE, double)
+      ZERO_FILL_CASE(tensorflow::DT_INT32, int32)
+      ZERO_FILL_CASE(tensorflow::DT_INT64, int64)
+      ZERO_FILL_CASE(tensorflow::DT_UINT8, uint8)
+      ZERO_FILL_CASE(tensorflow::DT_BOOL, bool)
+#undef ZERO_FILL_CASE
+      default:
+        LOG(WARNING) << "Placeholder " << node.name() << " has unsupported "
+                     << "type " << DataTypeString(dtype->second.type())
+                     << ", fill it before warmUp().";
+        continue;
+    }
+    vars->warmup_feeds.emplace_back(node.name(), tensor);
+  }
+}
 
+// Creates the session for vars from a graph that has already been read into
+// memory. The graph is cleared afterwards to save memory space.
+static jint CreateSession(SessionVariables* vars,
+                          tensorflow::GraphDef* tensorflow_graph) {
   LOG(INFO) << "Making new SessionOptions.";
   tensorflow::SessionOptions options;
   tensorflow::ConfigProto& config = options.config;
   LOG(INFO) << "Got config, " << config.device_count_size() << " devices";
 
-  tensorflow::Session* session = tensorflow::NewSession(options);
-  vars->session.reset(session);
+  std::shared_ptr<tensorflow::Session> session(
+      tensorflow::NewSession(options));
   LOG(INFO) << "Session created.";
 
-  tensorflow::GraphDef tensorflow_graph;
-  LOG(INFO) << "Graph created.";
-
-  AAssetManager* const asset_manager =
-      AAssetManager_fromJava(env, java_asset_manager);
-  LOG(INFO) << "Acquired AssetManager.";
+  LOG(INFO) << "Creating session.";
+  const int64 start_time = CurrentWallTimeUs();
+  tensorflow::Status s = session->Create(*tensorflow_graph);
+  vars->create_time_us = CurrentWallTimeUs() - start_time;
 
-  LOG(INFO) << "Reading file to proto: " << model_str;
-  ReadFileToProtoOrDie(asset_manager, model_str.c_str(), &tensorflow_graph);
+  vars->graph_size_bytes = tensorflow_graph->ByteSize();
+  if (s.ok()) {
+    PrepareWarmUp(*tensorflow_graph, vars);
+  }
 
-  LOG(INFO) << "Creating session.";
-  tensorflow::Status s = session->Create(tensorflow_graph);
+  std::shared_ptr<tensorflow::GraphDef> graph_outline(
+      new tensorflow::GraphDef());
+  for (const tensorflow::NodeDef& node : tensorflow_graph->node()) {
+    tensorflow::NodeDef* outline_node = graph_outline->add_node();
+    outline_node->set_name(node.name());
+    outline_node->set_op(node.op());
+  }
+  vars->graph_outline = graph_outline;
 
   // Clear the proto to save memory space.
-  tensorflow_graph.Clear();
+  tensorflow_graph->Clear();
 
   if (!s.ok()) {
     LOG(ERROR) << "Could not create Tensorflow Graph: " << s;
     return s.code();
   }
 
-  LOG(INFO) << "Tensorflow graph loaded from: " << model_str;
+  mutex_lock l(mutex_);
+  vars->session = session;
+  vars->session_users = std::make_shared<int>(0);
+  return s.code();
+}
+
+// Reads the graph with read_graph and creates a session from it, unless one
+// has already been created for this object.
+template <typename GraphReader>
+static jint InitializeSession(JNIEnv* env, jobject thiz,
+                              const std::string& source,
+                              GraphReader read_graph) {
+  SessionVariables* vars = GetSessionVars(env, thiz);
+
+  if (vars->session.get() != nullptr) {
+    LOG(INFO) << "Compute graph already loaded. skipping.";
+    return 0;
+  }
+
+  const int64 start_time = CurrentWallTimeUs();
+
+  LOG(INFO) << "Loading Tensorflow.";
+
+  tensorflow::GraphDef tensorflow_graph;
+  LOG(INFO) << "Graph created.";
+
+  LOG(INFO) << "Reading file to proto: " << source;
+  tensorflow::Status s = read_graph(&tensorflow_graph);
+  vars->parse_time_us = CurrentWallTimeUs() - start_time;
+  if (!s.ok()) {
+    LOG(ERROR) << "Could not read graph from " << source << ": " << s;
+    return s.code();
+  }
+
+  const jint status = CreateSession(vars, &tensorflow_graph);
+  if (status != tensorflow::error::OK) {
+    return status;
+  }
+
+  LOG(INFO) << "Tensorflow graph loaded from: " << source;
 
   const int64 end_time = CurrentWallTimeUs();
   LOG(INFO) << "Initialization done in " << (end_time - start_time) / 1000.0
-            << "ms";
+            << "ms (parse " << vars->parse_time_us / 1000.0 << "ms, create "
+            << vars->create_time_us / 1000.0 << "ms)";
 
-  return s.code();
+  return status;
+}
+
+JNIEXPORT jint JNICALL TENSORFLOW_METHOD(initializeTensorFlow)(
+    JNIEnv* env, jobject thiz, jobject java_asset_manager, jstring model) {
+  const std::string model_str = GetString(env, model);
+
+#ifdef __ANDROID__
+  AAssetManager* const asset_manager =
+      java_asset_manager != nullptr
+          ? AAssetManager_fromJava(env, java_asset_manager)
+          : nullptr;
+  LOG(INFO) << "Acquired AssetManager.";
+#else
+  // Without assets the model path is resolved against the filesystem.
+  AAssetManager* const asset_manager = nullptr;
+#endif  // __ANDROID__
+
+  return InitializeSession(
+      env, thiz, model_str, [&](tensorflow::GraphDef* graph) {
+        return ReadFileToProto(asset_manager, model_str.c_str(), graph);
+      });
+}
+
+JNIEXPORT jint JNICALL TENSORFLOW_METHOD(initializeTensorFlowFromFile)(
+    JNIEnv* env, jobject thiz, jstring model_path) {
+  const std::string path_str = GetString(env, model_path);
+
+  return InitializeSession(
+      env, thiz, path_str, [&](tensorflow::GraphDef* graph) {
+        return MemoryMappedFileToProto(path_str.c_str(), graph);
+      });
+}
+
+JNIEXPORT jint JNICALL TENSORFLOW_METHOD(initializeTensorFlowFromBuffer)(
+    JNIEnv* env, jobject thiz, jobject model_buffer) {
+  // GetDirectBufferAddress is undefined for null and fails for heap buffers.
+  const void* const data = model_buffer != nullptr
+                               ? env->GetDirectBufferAddress(model_buffer)
+                               : nullptr;
+  if (data == nullptr) {
+    LOG(ERROR) << "The model must be given as a direct ByteBuffer.";
+    return tensorflow::error::INVALID_ARGUMENT;
+  }
+  const int64 length = env->GetDirectBufferCapacity(model_buffer);
+
+  return InitializeSession(
+      env, thiz, "direct buffer", [&](tensorflow::GraphDef* graph) {
+        return ParseProtoFromBuffer(data, length, graph);
+      });
 }
 
 static tensorflow::Tensor* GetTensor(JNIEnv* env, jobject thiz,
                                      jstring node_name_jstring) {
   SessionVariables* vars = GetSessionVars(env, thiz);
-  std::string node_name = GetString(env, node_name_jstring);
+  const char* const node_name =
+      env->GetStringUTFChars(node_name_jstring, nullptr);
 
   int output_index = -1;
   for (int i = 0; i < vars->output_tensors.size(); ++i) {
@@ -157,43 +402,100 @@ static tensorflow::Tensor* GetTensor(JNIEnv* env, jobject thiz,
   }
   if (output_index == -1) {
     LOG(ERROR) << "Output [" << node_name << "] not found, aborting!";
-    return nullptr;
   }
+  env->ReleaseStringUTFChars(node_name_jstring, node_name);
 
+  if (output_index == -1) {
+    return nullptr;
+  }
   tensorflow::Tensor* output = &vars->output_tensors[output_index];
   return output;
 }
 
-JNIEXPORT jint JNICALL TENSORFLOW_METHOD(runInference)(
-    JNIEnv* env, jobject thiz, jobjectArray output_name_strings) {
-  SessionVariables* vars = GetSessionVars(env, thiz);
+// Returns whether the last run of vars started with a deadline is still
+// executing, forgetting it once it has finished.
+static bool RunInFlight(SessionVariables* vars) {
+  mutex_lock l(mutex_);
+  if (vars->pending_run == nullptr) {
+    return false;
+  }
+  {
+    mutex_lock run_lock(vars->pending_run->mu);
+    if (!vars->pending_run->done) {
+      return true;
+    }
+  }
+  vars->pending_run.reset();
+  return false;
+}
 
-  // Add the requested outputs to the output list.
-  vars->output_tensor_names.clear();
-  for (int i = 0; i < env->GetArrayLength(output_name_strings); i++) {
-    jstring java_string =
-        (jstring)(env->GetObjectArrayElement(output_name_strings, i));
-    std::string output_name = GetString(env, java_string);
-    vars->output_tensor_names.push_back(output_name);
+// Returns the input tensor of the given name, type and shape. The tensor
+// allocated by a previous fill is reused if it matches and is not also
+// referenced by a still-held output, so steady-state fills do not allocate.
+static tensorflow::Tensor* GetInputTensor(
+    JNIEnv* env, SessionVariables* vars, jstring node_name_jstring,
+    const tensorflow::DataType dtype, const tensorflow::TensorShape& shape) {
+  const char* const node_name =
+      env->GetStringUTFChars(node_name_jstring, nullptr);
+
+  tensorflow::Tensor* input = nullptr;
+  for (auto& entry : vars->input_tensors) {
+    if (entry.first == node_name) {
+      input = &entry.second;
+      break;
+    }
   }
 
-  ++(vars->num_runs);
+  if (input == nullptr) {
+    vars->input_tensors.emplace_back(node_name,
+                                     tensorflow::Tensor(dtype, shape));
+    input = &vars->input_tensors.back().second;
+  } else {
+    // An abandoned run may still be reading the tensor, in which case it is
+    // replaced rather than overwritten.
+    bool reusable = input->dtype() == dtype && input->shape() == shape &&
+                    !RunInFlight(vars);
+    for (const tensorflow::Tensor& output : vars->output_tensors) {
+      reusable = reusable && !input->SharesBufferWith(output);
+    }
+    if (!reusable) {
+      *input = tensorflow::Tensor(dtype, shape);
+    }
+  }
+
+  env->ReleaseStringUTFChars(node_name_jstring, node_name);
+  return input;
+}
+
+// Runs the session on the current inputs.
+static jint RunSession(SessionVariables* vars) {
   tensorflow::Status s;
   int64 start_time, end_time;
 
   start_time = CurrentWallTimeUs();
 
-  std::vector<std::pair<std::string, tensorflow::Tensor> > input_tensors;
-  for (const auto& entry : vars->input_tensors) {
-    input_tensors.push_back(entry.second);
-  }
-
+  // Clearing keeps the vector's capacity, so Run() does not reallocate it.
   vars->output_tensors.clear();
-  s = vars->session->Run(input_tensors, vars->output_tensor_names, {},
-                         &(vars->output_tensors));
-  end_time = CurrentWallTimeUs();
+  const bool profile = vars->profiling_interval > 0 &&
+                       vars->num_runs % vars->profiling_interval == 0;
+  if (profile) {
+    tensorflow::RunOptions run_options;
+    run_options.set_trace_level(tensorflow::RunOptions::SOFTWARE_TRACE);
+    tensorflow::RunMetadata run_metadata;
+    s = vars->session->Run(run_options, vars->input_tensors,
+                           vars->output_tensor_names, {},
+                           &(vars->output_tensors), &run_metadata);
+    end_time = CurrentWallTimeUs();
+    if (s.ok()) {
+      ProcessStepStats(vars, run_metadata.step_stats());
+    }
+  } else {
+    s = vars->session->Run(vars->input_tensors, vars->output_tensor_names, {},
+                           &(vars->output_tensors));
+    end_time = CurrentWallTimeUs();
+  }
   const int64 elapsed_time_inf = end_time - start_time;
-  vars->timing_total_us += elapsed_time_inf;
+  RecordRun(vars, elapsed_time_inf);
   VLOG(0) << "End computing. Ran in " << elapsed_time_inf / 1000 << "ms ("
           << (vars->timing_total_us / vars->num_runs / 1000) << "ms avg over "
           << vars->num_runs << " runs)";
@@ -204,69 +506,496 @@ JNIEXPORT jint JNICALL TENSORFLOW_METHOD(runInference)(
   return s.code();
 }
 
-JNIEXPORT jint JNICALL TENSORFLOW_METHOD(close)(JNIEnv* env, jobject thiz) {
+// Calls CancellationToken.isCancelled() on token, which may be null.
+static bool IsTokenCancelled(JNIEnv* env, jobject token) {
+  if (token == nullptr) {
+    return false;
+  }
+  jclass clazz = env->GetObjectClass(token);
+  jmethodID is_cancelled = env->GetMethodID(clazz, "isCancelled", "()Z");
+  return env->CallBooleanMethod(token, is_cancelled);
+}
+
+// Runs the session on the current inputs on a worker thread and waits for at
+// most timeout_ms, or without limit if timeout_ms is not positive. If the
+// deadline passes or the token is cancelled first, the run is abandoned and
+// DEADLINE_EXCEEDED or CANCELLED is returned right away. An abandoned run's
+// outputs and timings are dropped when it eventually finishes.
+//
+// The deadline is deliberately not passed as RunOptions.timeout_in_ms: on
+// expiry DirectSession cancels the whole session, which would make every later
+// run fail, including those of contexts sharing the session. To keep a stuck
+// model from piling up threads, a context has at most one run executing and
+// returns UNAVAILABLE while an abandoned one has not finished yet.
+static jint RunSessionWithDeadline(JNIEnv* env, SessionVariables* vars,
+                                   int64 timeout_ms, jobject token) {
+  const int64 start_time = CurrentWallTimeUs();
+  if (RunInFlight(vars)) {
+    LOG(WARNING) << "An abandoned run is still executing, skipping this one.";
+    return tensorflow::error::UNAVAILABLE;
+  }
+
+  std::shared_ptr<PendingRun> run(new PendingRun);
+  {
+    mutex_lock l(mutex_);
+    vars->pending_run = run;
+  }
+  // Checked only once the run is published, so that a concurrent cancel() is
+  // either seen here or reaches the run through cancelPendingRun().
+  if (IsTokenCancelled(env, token)) {
+    mutex_lock l(mutex_);
+    vars->pending_run.reset();
+    return tensorflow::error::CANCELLED;
+  }
+
+  vars->output_tensors.clear();
+  const bool profile = vars->profiling_interval > 0 &&
+                       vars->num_runs % vars->profiling_interval == 0;
+  tensorflow::RunOptions run_options;
+  if (profile) {
+    run_options.set_trace_level(tensorflow::RunOptions::SOFTWARE_TRACE);
+  }
+
+  // The worker holds its own references to the session and the inputs, so
+  // that neither is freed or overwritten while it runs.
+  const std::shared_ptr<tensorflow::Session> session = vars->session;
+  const InputList inputs = vars->input_tensors;
+  const std::vector<std::string> output_names = vars->output_tensor_names;
+  tensorflow::Env::Default()->SchedClosure(
+      [run, session, inputs, output_names, run_options]() {
+        std::vector<tensorflow::Tensor> outputs;
+        tensorflow::RunMetadata run_metadata;
+        const int64 run_start_time = CurrentWallTimeUs();
+        const tensorflow::Status s = session->Run(
+            run_options, inputs, output_names, {}, &outputs, &run_metadata);
+        const int64 elapsed_us = CurrentWallTimeUs() - run_start_time;
+
+        mutex_lock l(run->mu);
+        run->status = s;
+        run->outputs.swap(outputs);
+        run->run_metadata.Swap(&run_metadata);
+        run->elapsed_us = elapsed_us;
+        run->done = true;
+        run->cv.notify_all();
+      });
+
+  const int64 deadline = start_time + timeout_ms * 1000;
+  bool done;
+  bool cancelled;
+  {
+    mutex_lock l(run->mu);
+    while (!run->done && !run->cancelled) {
+      if (timeout_ms <= 0) {
+        run->cv.wait(l);
+        continue;
+      }
+      const int64 remaining_us = deadline - CurrentWallTimeUs();
+      if (remaining_us <= 0) {
+        break;
+      }
+      WaitForMilliseconds(&l, &run->cv, (remaining_us + 999) / 1000);
+    }
+    done = run->done;
+    cancelled = run->cancelled;
+  }
+
+  if (!done) {
+    // Left to finish on its own; pending_run keeps it known until then.
+    VLOG(0) << "Abandoned run after "
+            << (CurrentWallTimeUs() - start_time) / 1000 << "ms, "
+            << (cancelled ? "cancelled." : "deadline exceeded.");
+    return cancelled ? tensorflow::error::CANCELLED
+                     : tensorflow::error::DEADLINE_EXCEEDED;
+  }
+
+  {
+    mutex_lock l(mutex_);
+    vars->pending_run.reset();
+  }
+  RecordRun(vars, run->elapsed_us);
+  VLOG(0) << "End computing. Ran in " << run->elapsed_us / 1000 << "ms ("
+          << (vars->timing_total_us / vars->num_runs / 1000) << "ms avg over "
+          << vars->num_runs << " runs)";
+  if (!run->status.ok()) {
+    LOG(ERROR) << "Error during inference: " << run->status;
+    return run->status.code();
+  }
+  if (profile) {
+    ProcessStepStats(vars, run->run_metadata.step_stats());
+  }
+  vars->output_tensors.swap(run->outputs);
+  return tensorflow::error::OK;
+}
+
+// Replaces the requested outputs with the given Java strings.
+static void SetOutputNames(JNIEnv* env, SessionVariables* vars,
+                           jobjectArray output_name_strings) {
+  vars->output_tensor_names.clear();
+  for (int i = 0; i < env->GetArrayLength(output_name_strings); i++) {
+    jstring java_string =
+        (jstring)(env->GetObjectArrayElement(output_name_strings, i));
+    std::string output_name = GetString(env, java_string);
+    vars->output_tensor_names.push_back(output_name);
+    env->DeleteLocalRef(java_string);
+  }
+}
+
+JNIEXPORT jint JNICALL TENSORFLOW_METHOD(runInference)(
+    JNIEnv* env, jobject thiz, jobjectArray output_name_strings) {
   SessionVariables* vars = GetSessionVars(env, thiz);
 
-  tensorflow::Status s = vars->session->Close();
-  if (!s.ok()) {
-    LOG(ERROR) << "Error closing session: " << s;
+  // Add the requested outputs to the output list.
+  SetOutputNames(env, vars, output_name_strings);
+
+  return RunSession(vars);
+}
+
+JNIEXPORT jint JNICALL TENSORFLOW_METHOD(runInferenceWithTimeout)(
+    JNIEnv* env, jobject thiz, jobjectArray output_name_strings,
+    jlong timeout_ms, jobject token) {
+  SessionVariables* vars = GetSessionVars(env, thiz);
+  SetOutputNames(env, vars, output_name_strings);
+  return RunSessionWithDeadline(env, vars, timeout_ms, token);
+}
+
+JNIEXPORT void JNICALL TENSORFLOW_METHOD(prepareRun)(
+    JNIEnv* env, jobject thiz, jobjectArray output_name_strings) {
+  SessionVariables* vars = GetSessionVars(env, thiz);
+  SetOutputNames(env, vars, output_name_strings);
+}
+
+JNIEXPORT jint JNICALL TENSORFLOW_METHOD(runPrepared)(JNIEnv* env,
+                                                     jobject thiz) {
+  SessionVariables* vars = GetSessionVars(env, thiz);
+  if (vars->output_tensor_names.empty()) {
+    LOG(ERROR) << "runPrepared() called before prepareRun().";
+    return tensorflow::error::FAILED_PRECONDITION;
+  }
+  return RunSession(vars);
+}
+
+JNIEXPORT jint JNICALL TENSORFLOW_METHOD(runPreparedWithTimeout)(
+    JNIEnv* env, jobject thiz, jlong timeout_ms, jobject token) {
+  SessionVariables* vars = GetSessionVars(env, thiz);
+  if (vars->output_tensor_names.empty()) {
+    LOG(ERROR) << "runPreparedWithTimeout() called before prepareRun().";
+    return tensorflow::error::FAILED_PRECONDITION;
+  }
+  return RunSessionWithDeadline(env, vars, timeout_ms, token);
+}
+
+JNIEXPORT void JNICALL TENSORFLOW_METHOD(cancelPendingRun)(JNIEnv* env,
+                                                          jobject thiz) {
+  // Looked up without GetSessionVars, which would create variables for an
+  // object that has already been closed.
+  const int64 id = GetSessionId(env, thiz);
+  std::shared_ptr<PendingRun> run;
+  {
+    mutex_lock l(mutex_);
+    std::map<int64, SessionVariables*>& sessions = *GetSessionsSingleton();
+    const auto it = sessions.find(id);
+    if (it == sessions.end()) {
+      return;
+    }
+    run = it->second->pending_run;
+  }
+  if (run == nullptr) {
+    return;
+  }
+  mutex_lock l(run->mu);
+  run->cancelled = true;
+  run->cv.notify_all();
+}
+
+JNIEXPORT jint JNICALL TENSORFLOW_METHOD(warmUp)(JNIEnv* env, jobject thiz,
+                                                jint iterations) {
+  SessionVariables* vars = GetSessionVars(env, thiz);
+  if (vars->session.get() == nullptr) {
+    LOG(ERROR) << "warmUp() called before initialization.";
+    return tensorflow::error::FAILED_PRECONDITION;
+  }
+
+  // Prefer whatever the caller has already filled and requested, as that
+  // exercises exactly the kernels and shapes used later on.
+  std::vector<std::pair<std::string, tensorflow::Tensor> > feeds;
+  std::vector<std::string> targets;
+  if (vars->input_tensors.empty()) {
+    feeds = vars->warmup_feeds;
+  } else {
+    feeds = vars->input_tensors;
+  }
+  if (vars->output_tensor_names.empty()) {
+    targets = vars->warmup_targets;
+  }
+
+  tensorflow::Status s;
+  std::vector<tensorflow::Tensor> outputs;
+  for (int i = 0; i < iterations; ++i) {
+    const int64 start_time = CurrentWallTimeUs();
+    s = vars->session->Run(feeds, vars->output_tensor_names, targets, &outputs);
+    const int64 elapsed_time = CurrentWallTimeUs() - start_time;
+    if (!s.ok()) {
+      LOG(ERROR) << "Error during warm-up: " << s;
+      return s.code();
+    }
+    RecordRun(vars, elapsed_time);
+    VLOG(0) << "Warm-up run " << i << " took " << elapsed_time / 1000 << "ms";
+  }
+
+  LOG(INFO) << "Warm-up done, first run took "
+            << vars->first_run_time_us / 1000.0 << "ms";
+  return s.code();
+}
+
+JNIEXPORT void JNICALL TENSORFLOW_METHOD(readStartupTimingsUs)(
+    JNIEnv* env, jobject thiz, jlongArray timings) {
+  SessionVariables* vars = GetSessionVars(env, thiz);
+
+  const int64 steady_state_us =
+      vars->num_runs > 1
+          ? (vars->timing_total_us - vars->first_run_time_us) /
+                (vars->num_runs - 1)
+          : 0;
+  const jlong values[] = {vars->parse_time_us, vars->create_time_us,
+                          vars->first_run_time_us, steady_state_us,
+                          vars->num_runs};
+  const int num_values =
+      std::min(static_cast<int>(sizeof(values) / sizeof(values[0])),
+               static_cast<int>(env->GetArrayLength(timings)));
+  env->SetLongArrayRegion(timings, 0, num_values, values);
+}
+
+JNIEXPORT jlong JNICALL TENSORFLOW_METHOD(getModelSizeBytes)(JNIEnv* env,
+                                                             jobject thiz) {
+  SessionVariables* vars = GetSessionVars(env, thiz);
+  return vars->graph_size_bytes;
+}
+
+JNIEXPORT void JNICALL TENSORFLOW_METHOD(enableProfiling)(JNIEnv* env,
+                                                         jobject thiz,
+                                                         jint interval) {
+  SessionVariables* vars = GetSessionVars(env, thiz);
+
+  vars->profiling_interval = interval;
+  vars->node_stats.clear();
+  vars->stat_summarizer.reset();
+  if (interval > 0 && vars->graph_outline != nullptr) {
+    vars->stat_summarizer.reset(
+        new tensorflow::StatSummarizer(*vars->graph_outline));
   }
+}
+
+JNIEXPORT jstring JNICALL TENSORFLOW_METHOD(getProfileSummary)(JNIEnv* env,
+                                                               jobject thiz) {
+  SessionVariables* vars = GetSessionVars(env, thiz);
+
+  std::string summary;
+  if (vars->stat_summarizer != nullptr) {
+    summary = vars->stat_summarizer->GetTimingStatsByTopDurations() + "\n" +
+              vars->stat_summarizer->GetMemoryStatsByUsage();
+  }
+  return env->NewStringUTF(summary.c_str());
+}
+
+JNIEXPORT jstring JNICALL TENSORFLOW_METHOD(readOpStats)(JNIEnv* env,
+                                                         jobject thiz,
+                                                         jboolean by_type) {
+  SessionVariables* vars = GetSessionVars(env, thiz);
+
+  std::map<std::string, OpStats> type_stats;
+  if (by_type && vars->graph_outline != nullptr) {
+    std::map<std::string, std::string> node_types;
+    for (const tensorflow::NodeDef& node : vars->graph_outline->node()) {
+      node_types[node.name()] = node.op();
+    }
+    for (const auto& entry : vars->node_stats) {
+      const auto node_type = node_types.find(entry.first);
+      // Nodes added by the runtime, such as _SOURCE, are not in the graph.
+      const std::string& type =
+          node_type == node_types.end() ? entry.first : node_type->second;
+      OpStats* stats = &type_stats[type];
+      stats->count += entry.second.count;
+      stats->total_us += entry.second.total_us;
+      stats->memory_bytes += entry.second.memory_bytes;
+    }
+  }
+
+  // One tab-separated line per entry: name, count, total time, total memory.
+  std::stringstream stream;
+  for (const auto& entry : by_type ? type_stats : vars->node_stats) {
+    stream << entry.first << "\t" << entry.second.count << "\t"
+           << entry.second.total_us << "\t" << entry.second.memory_bytes
+           << "\n";
+  }
+  return env->NewStringUTF(stream.str().c_str());
+}
+
+JNIEXPORT jint JNICALL TENSORFLOW_METHOD(initializeFromShared)(
+    JNIEnv* env, jobject thiz, jobject source) {
+  SessionVariables* vars = GetSessionVars(env, thiz);
+  SessionVariables* source_vars = GetSessionVars(env, source);
 
   mutex_lock l(mutex_);
-  std::map<int64, SessionVariables*>& sessions = *GetSessionsSingleton();
-  sessions.erase(vars->id);
-  delete vars;
+  if (vars->session.get() != nullptr) {
+    LOG(INFO) << "Compute graph already loaded. skipping.";
+    return 0;
+  }
+
+  if (source_vars->session.get() == nullptr) {
+    LOG(ERROR) << "Source session " << std::hex << source_vars->id
+               << " has not been initialized.";
+    return tensorflow::error::FAILED_PRECONDITION;
+  }
+
+  // Sessions support concurrent calls to Run(), so only the feeds and fetches
+  // need to be kept separate.
+  vars->session = source_vars->session;
+  vars->session_users = source_vars->session_users;
+  vars->parse_time_us = source_vars->parse_time_us;
+  vars->create_time_us = source_vars->create_time_us;
+  vars->warmup_feeds = source_vars->warmup_feeds;
+  vars->warmup_targets = source_vars->warmup_targets;
+  vars->graph_outline = source_vars->graph_outline;
+  vars->graph_size_bytes = source_vars->graph_size_bytes;
+  LOG(INFO) << "Sharing session of " << std::hex << source_vars->id << " with "
+            << vars->id;
+  return 0;
+}
+
+JNIEXPORT jint JNICALL TENSORFLOW_METHOD(close)(JNIEnv* env, jobject thiz) {
+  SessionVariables* vars = GetSessionVars(env, thiz);
+
+  std::shared_ptr<tensorflow::Session> session;
+  bool last_user;
+  {
+    mutex_lock l(mutex_);
+    session.swap(vars->session);
+    last_user = vars->session_users.use_count() == 1;
+    std::map<int64, SessionVariables*>& sessions = *GetSessionsSingleton();
+    sessions.erase(vars->id);
+    delete vars;
+  }
+
+  tensorflow::Status s;
+  if (last_user) {
+    s = session->Close();
+    if (!s.ok()) {
+      LOG(ERROR) << "Error closing session: " << s;
+    }
+  }
 
   return s.code();
 }
 
-// TODO(andrewharp): Use memcpy to fill/read nodes.
-#define FILL_NODE_METHOD(DTYPE, JAVA_DTYPE, TENSOR_DTYPE)                   \
+// The Java and tensor element types have the same size and representation, so
+// the arrays are copied directly into and out of the tensor buffers.
+#define FILL_NODE_METHOD(DTYPE, JAVA_DTYPE, C_DTYPE, TENSOR_DTYPE)          \
   FILL_NODE_SIGNATURE(DTYPE, JAVA_DTYPE) {                                  \
+    static_assert(sizeof(C_DTYPE) == sizeof(j##JAVA_DTYPE),                 \
+                  "Java and tensor element sizes must match.");             \
     SessionVariables* vars = GetSessionVars(env, thiz);                     \
-    tensorflow::Tensor input_tensor(TENSOR_DTYPE,                           \
-                                    tensorflow::TensorShape({x, y, z, d})); \
-    auto tensor_mapped = input_tensor.flat<JAVA_DTYPE>();                   \
-    jboolean iCopied = JNI_FALSE;                                           \
-    j##JAVA_DTYPE* values = env->Get##DTYPE##ArrayElements(arr, &iCopied);  \
-    j##JAVA_DTYPE* value_ptr = values;                                      \
-    const int array_size = env->GetArrayLength(arr);                        \
-    for (int i = 0;                                                         \
-         i < std::min(static_cast<int>(tensor_mapped.size()), array_size);  \
-         ++i) {                                                             \
-      tensor_mapped(i) = *value_ptr++;                                      \
+    tensorflow::Tensor* input_tensor =                                      \
+        GetInputTensor(env, vars, node_name, TENSOR_DTYPE,                  \
+                       tensorflow::TensorShape({x, y, z, d}));              \
+    auto tensor_mapped = input_tensor->flat<C_DTYPE>();                     \
+    const int num_items = std::min(static_cast<int>(tensor_mapped.size()),  \
+                                   env->GetArrayLength(arr));               \
+    env->Get##DTYPE##ArrayRegion(                                           \
+        arr, 0, num_items,                                                  \
+        reinterpret_cast<j##JAVA_DTYPE*>(tensor_mapped.data()));            \
+  }
+
+#define READ_NODE_METHOD(DTYPE, JAVA_DTYPE, C_DTYPE)                        \
+  READ_NODE_SIGNATURE(DTYPE, JAVA_DTYPE) {                                  \
+    static_assert(sizeof(C_DTYPE) == sizeof(j##JAVA_DTYPE),                 \
+                  "Java and tensor element sizes must match.");             \
+    Tensor* t = GetTensor(env, thiz, node_name_jstring);                    \
+    if (t == nullptr) {                                                     \
+      return -1;                                                            \
+    }                                                                       \
+    if (t->dtype() != tensorflow::DataTypeToEnum<C_DTYPE>::value) {         \
+      LOG(ERROR) << "Output has type " << DataTypeString(t->dtype())        \
+                 << ", can not be read into a " #JAVA_DTYPE " array.";      \
+      return -1;                                                            \
     }                                                                       \
-    env->Release##DTYPE##ArrayElements(arr, values, JNI_ABORT);             \
-    std::string input_name = GetString(env, node_name);                     \
-    std::pair<std::string, tensorflow::Tensor> input_pair(input_name,       \
-                                                          input_tensor);    \
-    vars->input_tensors[input_name] = input_pair;                           \
-  }
-
-#define READ_NODE_METHOD(DTYPE, JAVA_DTYPE)                                \
-  READ_NODE_SIGNATURE(DTYPE, JAVA_DTYPE) {                                 \
-    SessionVariables* vars = GetSessionVars(env, thiz);                    \
-    Tensor* t = GetTensor(env, thiz, node_name_jstring);                   \
-    if (t == nullptr) {                                                    \
-      return -1;                                                           \
-    }                                                                      \
-    auto tensor_mapped = t->flat<JAVA_DTYPE>();                            \
-    jboolean iCopied = JNI_FALSE;                                          \
-    j##JAVA_DTYPE* values = env->Get##DTYPE##ArrayElements(arr, &iCopied); \
-    j##JAVA_DTYPE* value_ptr = values;                                     \
-    const int num_items = std::min(static_cast<int>(tensor_mapped.size()), \
-                                   env->GetArrayLength(arr));              \
-    for (int i = 0; i < num_items; ++i) {                                  \
-      *value_ptr++ = tensor_mapped(i);                                     \
-    }                                                                      \
-    env->Release##DTYPE##ArrayElements(arr, values, 0);                    \
-    return 0;                                                              \
-  }
-
-FILL_NODE_METHOD(Float, float, tensorflow::DT_FLOAT)
-FILL_NODE_METHOD(Int, int, tensorflow::DT_INT32)
-FILL_NODE_METHOD(Double, double, tensorflow::DT_DOUBLE)
-
-READ_NODE_METHOD(Float, float)
-READ_NODE_METHOD(Int, int)
-READ_NODE_METHOD(Double, double)
+    auto tensor_mapped = t->flat<C_DTYPE>();                                \
+    const int num_items = std::min(static_cast<int>(tensor_mapped.size()),  \
+                                   env->GetArrayLength(arr));               \
+    env->Set##DTYPE##ArrayRegion(                                           \
+        arr, 0, num_items,                                                  \
+        reinterpret_cast<const j##JAVA_DTYPE*>(tensor_mapped.data()));      \
+    return 0;                                                               \
+  }
+
+FILL_NODE_METHOD(Float, float, float, tensorflow::DT_FLOAT)
+FILL_NODE_METHOD(Int, int, int32, tensorflow::DT_INT32)
+FILL_NODE_METHOD(Double, double, double, tensorflow::DT_DOUBLE)
+FILL_NODE_METHOD(Byte, byte, uint8, tensorflow::DT_UINT8)
+
+READ_NODE_METHOD(Float, float, float)
+READ_NODE_METHOD(Int, int, int32)
+READ_NODE_METHOD(Double, double, double)
+READ_NODE_METHOD(Byte, byte, uint8)
+READ_NODE_METHOD(Long, long, int64)
+READ_NODE_METHOD(Boolean, boolean, bool)
+
+// Must match the CHANNEL_ORDER_* constants in TensorFlowInferenceInterface.
+enum ChannelOrder { kChannelOrderRgb = 0, kChannelOrderBgr = 1 };
+
+JNIEXPORT jint JNICALL TENSORFLOW_METHOD(fillNodeFromBitmap)(
+    JNIEnv* env, jobject thiz, jstring node_name, jobject bitmap, jfloat mean,
+    jfloat std, jint channel_order) {
+#ifdef __ANDROID__
+  if (std == 0.0f) {
+    LOG(ERROR) << "fillNodeFromBitmap() requires a non-zero std.";
+    return tensorflow::error::INVALID_ARGUMENT;
+  }
+
+  AndroidBitmapInfo info;
+  if (AndroidBitmap_getInfo(env, bitmap, &info) !=
+      ANDROID_BITMAP_RESULT_SUCCESS) {
+    LOG(ERROR) << "Could not read bitmap info.";
+    return tensorflow::error::INVALID_ARGUMENT;
+  }
+  if (info.format != ANDROID_BITMAP_FORMAT_RGBA_8888) {
+    LOG(ERROR) << "Bitmap format " << info.format
+               << " is not supported, only ARGB_8888 is.";
+    return tensorflow::error::INVALID_ARGUMENT;
+  }
+
+  SessionVariables* vars = GetSessionVars(env, thiz);
+  tensorflow::Tensor* input_tensor = GetInputTensor(
+      env, vars, node_name, tensorflow::DT_FLOAT,
+      tensorflow::TensorShape({1, static_cast<int64>(info.height),
+                               static_cast<int64>(info.width), 3}));
+
+  void* pixels = nullptr;
+  if (AndroidBitmap_lockPixels(env, bitmap, &pixels) !=
+      ANDROID_BITMAP_RESULT_SUCCESS) {
+    LOG(ERROR) << "Could not lock bitmap pixels.";
+    return tensorflow::error::INTERNAL;
+  }
+
+  // ARGB_8888 pixels are stored as R, G, B, A bytes, rows info.stride apart.
+  const int first = channel_order == kChannelOrderBgr ? 2 : 0;
+  const int last = 2 - first;
+  const float scale = 1.0f / std;
+  float* out = input_tensor->flat<float>().data();
+  for (uint32 row = 0; row < info.height; ++row) {
+    const uint8* in = static_cast<const uint8*>(pixels) + row * info.stride;
+    for (uint32 col = 0; col < info.width; ++col) {
+      out[0] = (in[first] - mean) * scale;
+      out[1] = (in[1] - mean) * scale;
+      out[2] = (in[last] - mean) * scale;
+      in += 4;
+      out += 3;
+    }
+  }
+
+  AndroidBitmap_unlockPixels(env, bitmap);
+  return tensorflow::error::OK;
+#else
+  LOG(ERROR) << "fillNodeFromBitmap() is only available on Android.";
+  return tensorflow::error::UNIMPLEMENTED;
+#endif  // __ANDROID__
+}
@@ -43,18 +43,71 @@ extern "C" {
 JNIEXPORT jint JNICALL TENSORFLOW_METHOD(initializeTensorFlow)(
     JNIEnv* env, jobject thiz, jobject java_asset_manager, jstring model);
 
+JNIEXPORT jint JNICALL TENSORFLOW_METHOD(initializeTensorFlowFromFile)(
+    JNIEnv* env, jobject thiz, jstring model_path);
+
+JNIEXPORT jint JNICALL TENSORFLOW_METHOD(initializeTensorFlowFromBuffer)(
+    JNIEnv* env, jobject thiz, jobject model_buffer);
+
+JNIEXPORT jint JNICALL TENSORFLOW_METHOD(initializeFromShared)(
+    JNIEnv* env, jobject thiz, jobject source);
+
 JNIEXPORT jint JNICALL TENSORFLOW_METHOD(runInference)(
     JNIEnv* env, jobject thiz, jobjectArray output_name_strings);
 
+JNIEXPORT jint JNICALL TENSORFLOW_METHOD(runInferenceWithTimeout)(
+    JNIEnv* env, jobject thiz, jobjectArray output_name_strings,
+    jlong timeout_ms, jobject token);
+
+JNIEXPORT void JNICALL TENSORFLOW_METHOD(prepareRun)(
+    JNIEnv* env, jobject thiz, jobjectArray output_name_strings);
+
+JNIEXPORT jint JNICALL TENSORFLOW_METHOD(runPrepared)(JNIEnv* env,
+                                                     jobject thiz);
+
+JNIEXPORT jint JNICALL TENSORFLOW_METHOD(runPreparedWithTimeout)(
+    JNIEnv* env, jobject thiz, jlong timeout_ms, jobject token);
+
+JNIEXPORT void JNICALL TENSORFLOW_METHOD(cancelPendingRun)(JNIEnv* env,
+                                                          jobject thiz);
+
+JNIEXPORT jint JNICALL TENSORFLOW_METHOD(warmUp)(JNIEnv* env, jobject thiz,
+                                                jint iterations);
+
+JNIEXPORT void JNICALL TENSORFLOW_METHOD(readStartupTimingsUs)(
+    JNIEnv* env, jobject thiz, jlongArray timings);
+
+JNIEXPORT jlong JNICALL TENSORFLOW_METHOD(getModelSizeBytes)(JNIEnv* env,
+                                                             jobject thiz);
+
+JNIEXPORT void JNICALL TENSORFLOW_METHOD(enableProfiling)(JNIEnv* env,
+                                                         jobject thiz,
+                                                         jint interval);
+
+JNIEXPORT jstring JNICALL TENSORFLOW_METHOD(getProfileSummary)(JNIEnv* env,
+                                                               jobject thiz);
+
+JNIEXPORT jstring JNICALL TENSORFLOW_METHOD(readOpStats)(JNIEnv* env,
+                                                         jobject thiz,
+                                                         jboolean by_type);
+
 JNIEXPORT jint JNICALL TENSORFLOW_METHOD(close)(JNIEnv* env, jobject thiz);
 
 FILL_NODE_SIGNATURE(Float, float);
 FILL_NODE_SIGNATURE(Int, int);
 FILL_NODE_SIGNATURE(Double, double);
+FILL_NODE_SIGNATURE(Byte, byte);
 
 READ_NODE_SIGNATURE(Float, float);
 READ_NODE_SIGNATURE(Int, int);
 READ_NODE_SIGNATURE(Double, double);
+READ_NODE_SIGNATURE(Byte, byte);
+READ_NODE_SIGNATURE(Long, long);
+READ_NODE_SIGNATURE(Boolean, boolean);
+
+JNIEXPORT jint JNICALL TENSORFLOW_METHOD(fillNodeFromBitmap)(
+    JNIEnv* env, jobject thiz, jstring node_name, jobject bitmap, jfloat mean,
+    jfloat std, jint channel_order);
 
 #ifdef __cplusplus
 }  // extern "C"
@@ -0,0 +1,63 @@
+/* Copyright 2016 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.tensorflow.demo;
+
+import java.util.Arrays;
+
+/**
+ * Collects the durations of the timed iterations of a host benchmark and prints their
+ * distribution. Not thread-safe.
+ */
+final class BenchmarkStats {
+  private final String name;
+  private final long[] durationsNs;
+  private int count = 0;
+
+  BenchmarkStats(final String name, final int capacity) {
+    this.name = name;
+    this.durationsNs = new long[capacity];
+  }
+
+  void add(final long durationNs) {
+    if (count < durationsNs.length) {
+      durationsNs[count++] = durationNs;
+    }
+  }
+
+  long getPercentileNs(final double percentile) {
+    final long[] sorted = Arrays.copyOf(durationsNs, count);
+    Arrays.sort(sorted);
+    return count > 0 ? sorted[(int) Math.min(count - 1, percentile / 100.0 * count)] : 0;
+  }
+
+  long getMeanNs() {
+    long total = 0;
+    for (int i = 0; i < count; ++i) {
+      total += durationsNs[i];
+    }
+    return count > 0 ? total / count : 0;
+  }
+
+  void print() {
+    System.out.println(String.format(
+        "%-40s %6d runs  mean %9.1fus  p50 %9.1fus  p90 %9.1fus  p99 %9.1fus",
+        name,
+        count,
+        getMeanNs() / 1000.0,
+        getPercentileNs(50) / 1000.0,
+        getPercentileNs(90) / 1000.0,
+        getPercentileNs(99) / 1000.0));
+  }
+}
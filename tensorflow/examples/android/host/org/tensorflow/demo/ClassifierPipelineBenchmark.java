@@ -0,0 +1,144 @@
+/* Copyright 2016 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.tensorflow.demo;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the Java side of the classification pipeline on a plain JVM: preprocessing, top-K
+ * selection and the classifier's own overhead, with a FakeInferenceBackend standing in for the
+ * model and the native library.
+ *
+ * Frames are replayed from a file of raw inputSize x inputSize ARGB frames, stored as consecutive
+ * big-endian ints, or generated randomly if no file is given. Run with
+ *   bazel run //tensorflow/examples/android:classifier_pipeline_benchmark -- \
+ *       [--iterations=N] [--latency_us=N] [--frames=path]
+ */
+public final class ClassifierPipelineBenchmark {
+  private static final int INPUT_SIZE = 224;
+  private static final int NUM_CLASSES = 1001;
+  private static final int IMAGE_MEAN = 117;
+  private static final float IMAGE_STD = 1;
+
+  private static final int NUM_RANDOM_FRAMES = 16;
+  private static final int WARM_UP_ITERATIONS = 200;
+
+  private ClassifierPipelineBenchmark() {}
+
+  public static void main(final String[] args) throws IOException {
+    int iterations = 2000;
+    long latencyUs = 0;
+    String framesPath = null;
+    for (final String arg : args) {
+      if (arg.startsWith("--iterations=")) {
+        iterations = Integer.parseInt(arg.substring("--iterations=".length()));
+      } else if (arg.startsWith("--latency_us=")) {
+        latencyUs = Long.parseLong(arg.substring("--latency_us=".length()));
+      } else if (arg.startsWith("--frames=")) {
+        framesPath = arg.substring("--frames=".length());
+      } else {
+        throw new IllegalArgumentException("Unknown argument: " + arg);
+      }
+    }
+
+    final int[][] frames = framesPath != null ? readFrames(new File(framesPath)) : randomFrames();
+    System.out.println("Replaying " + frames.length + " frames of " + INPUT_SIZE + "x" + INPUT_SIZE
+        + (framesPath != null ? " from " + framesPath : " of noise"));
+
+    final FakeInferenceBackend backend = new FakeInferenceBackend(
+        0, latencyUs, 0, FakeInferenceBackend.OutputDistribution.PEAKED, 0.8f);
+    final TensorFlowImageClassifier classifier = new TensorFlowImageClassifier(backend);
+    final int status = classifier.initializeTensorFlow(
+        syntheticLabels(), "fake", NUM_CLASSES, INPUT_SIZE, IMAGE_MEAN, IMAGE_STD, "input",
+        "output");
+    if (status != 0) {
+      throw new IllegalStateException("Initialization failed with status " + status);
+    }
+
+    long numResults = 0;
+    try {
+      for (int i = 0; i < WARM_UP_ITERATIONS; ++i) {
+        numResults += classifier.recognizePixels(
+            frames[i % frames.length], INPUT_SIZE, INPUT_SIZE).size();
+      }
+
+      final BenchmarkStats stats = new BenchmarkStats("recognizePixels", iterations);
+      for (int i = 0; i < iterations; ++i) {
+        final long startNs = System.nanoTime();
+        final List<Classifier.Recognition> results =
+            classifier.recognizePixels(frames[i % frames.length], INPUT_SIZE, INPUT_SIZE);
+        stats.add(System.nanoTime() - startNs);
+        numResults += results.size();
+      }
+      stats.print();
+    } finally {
+      classifier.close();
+    }
+
+    System.out.println(String.format(
+        "Fake inference took %dus per run and is included above; %d results in %d runs.",
+        latencyUs, numResults, backend.getNumRuns()));
+  }
+
+  private static LabelTable syntheticLabels() {
+    final StringBuilder labels = new StringBuilder();
+    for (int i = 0; i < NUM_CLASSES; ++i) {
+      labels.append("class ").append(i).append('\n');
+    }
+    return LabelTable.fromBuffer(
+        ByteBuffer.wrap(labels.toString().getBytes(StandardCharsets.UTF_8)));
+  }
+
+  private static int[][] randomFrames() {
+    final Random random = new Random(0);
+    final int[][] frames = new int[NUM_RANDOM_FRAMES][INPUT_SIZE * INPUT_SIZE];
+    for (final int[] frame : frames) {
+      for (int i = 0; i < frame.length; ++i) {
+        frame[i] = 0xff000000 | random.nextInt(0x1000000);
+      }
+    }
+    return frames;
+  }
+
+  private static int[][] readFrames(final File file) throws IOException {
+    final int frameBytes = INPUT_SIZE * INPUT_SIZE * 4;
+    final int numFrames = (int) (file.length() / frameBytes);
+    if (numFrames == 0) {
+      throw new IOException(
+          file + " holds no complete " + INPUT_SIZE + "x" + INPUT_SIZE + " frame");
+    }
+    final int[][] frames = new int[numFrames][INPUT_SIZE * INPUT_SIZE];
+    final DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      for (final int[] frame : frames) {
+        for (int i = 0; i < frame.length; ++i) {
+          frame[i] = in.readInt();
+        }
+      }
+    } finally {
+      in.close();
+    }
+    return frames;
+  }
+}
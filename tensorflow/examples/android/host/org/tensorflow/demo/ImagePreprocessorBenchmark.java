@@ -0,0 +1,102 @@
+/* Copyright 2016 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.tensorflow.demo;
+
+import java.util.Random;
+
+/**
+ * Times ImagePreprocessor against the per-pixel loop it replaced, which computed
+ * (value - mean) / std for every channel on the calling thread. Outputs are checked to match
+ * before timing. Run with
+ *   bazel run //tensorflow/examples/android:image_preprocessor_benchmark -- [--iterations=N]
+ */
+public final class ImagePreprocessorBenchmark {
+  private static final int[] INPUT_SIZES = {224, 299};
+  private static final int IMAGE_MEAN = 117;
+  private static final float IMAGE_STD = 1;
+  private static final int[] NUM_THREADS = {1, 2, 4};
+  private static final int WARM_UP_ITERATIONS = 200;
+
+  private ImagePreprocessorBenchmark() {}
+
+  // The loop formerly in TensorFlowImageClassifier.recognizeImage, writing BGR.
+  private static void normalizeLoop(
+      final int[] pixels, final float[] values, final int imageMean, final float imageStd) {
+    for (int i = 0; i < pixels.length; ++i) {
+      values[i * 3 + 0] = ((pixels[i] & 0xFF) - imageMean) / imageStd;
+      values[i * 3 + 1] = (((pixels[i] >> 8) & 0xFF) - imageMean) / imageStd;
+      values[i * 3 + 2] = (((pixels[i] >> 16) & 0xFF) - imageMean) / imageStd;
+    }
+  }
+
+  public static void main(final String[] args) {
+    int iterations = 2000;
+    for (final String arg : args) {
+      if (arg.startsWith("--iterations=")) {
+        iterations = Integer.parseInt(arg.substring("--iterations=".length()));
+      } else {
+        throw new IllegalArgumentException("Unknown argument: " + arg);
+      }
+    }
+
+    final Random random = new Random(0);
+    for (final int size : INPUT_SIZES) {
+      final int[] pixels = new int[size * size];
+      for (int i = 0; i < pixels.length; ++i) {
+        pixels[i] = 0xff000000 | random.nextInt(0x1000000);
+      }
+      final float[] expected = new float[pixels.length * 3];
+      final float[] values = new float[pixels.length * 3];
+      normalizeLoop(pixels, expected, IMAGE_MEAN, IMAGE_STD);
+
+      final BenchmarkStats loopStats = new BenchmarkStats(size + "x" + size + " loop", iterations);
+      for (int i = 0; i < WARM_UP_ITERATIONS + iterations; ++i) {
+        final long startNs = System.nanoTime();
+        normalizeLoop(pixels, values, IMAGE_MEAN, IMAGE_STD);
+        if (i >= WARM_UP_ITERATIONS) {
+          loopStats.add(System.nanoTime() - startNs);
+        }
+      }
+      loopStats.print();
+
+      for (final int numThreads : NUM_THREADS) {
+        final ImagePreprocessor preprocessor = new ImagePreprocessor(
+            IMAGE_MEAN, IMAGE_STD, ImagePreprocessor.CHANNEL_ORDER_BGR, numThreads);
+        try {
+          preprocessor.process(pixels, values, size, size);
+          for (int i = 0; i < values.length; ++i) {
+            if (values[i] != expected[i]) {
+              throw new IllegalStateException(
+                  "Preprocessor output differs from the loop at value " + i);
+            }
+          }
+
+          final BenchmarkStats stats = new BenchmarkStats(
+              size + "x" + size + " ImagePreprocessor, threads " + numThreads, iterations);
+          for (int i = 0; i < WARM_UP_ITERATIONS + iterations; ++i) {
+            final long startNs = System.nanoTime();
+            preprocessor.process(pixels, values, size, size);
+            if (i >= WARM_UP_ITERATIONS) {
+              stats.add(System.nanoTime() - startNs);
+            }
+          }
+          stats.print();
+        } finally {
+          preprocessor.close();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,117 @@
+/* Copyright 2016 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.tensorflow.demo;
+
+import java.util.Random;
+
+/**
+ * Times NonMaxSuppression with thousands of candidate boxes. Each size is run with the per-class
+ * pre-filter the detector uses and with the pre-filter effectively disabled, which shows the
+ * quadratic cost the pre-filter avoids. Boxes are clustered around a few objects so that
+ * suppression has work to do. Run with
+ *   bazel run //tensorflow/examples/android:non_max_suppression_benchmark -- [--iterations=N]
+ */
+public final class NonMaxSuppressionBenchmark {
+  private static final int[] NUM_BOXES = {1000, 1917, 5000, 10000};
+  private static final int[] NUM_CLASSES = {1, 20};
+  private static final int NUM_OBJECTS = 30;
+
+  // The settings of TensorFlowObjectDetector.
+  private static final float SCORE_THRESHOLD = 0.3f;
+  private static final float IOU_THRESHOLD = 0.5f;
+  private static final int MAX_CANDIDATES_PER_CLASS = 100;
+  private static final int MAX_DETECTIONS = 10;
+
+  private static final int WARM_UP_ITERATIONS = 20;
+
+  private NonMaxSuppressionBenchmark() {}
+
+  public static void main(final String[] args) {
+    int iterations = 200;
+    for (final String arg : args) {
+      if (arg.startsWith("--iterations=")) {
+        iterations = Integer.parseInt(arg.substring("--iterations=".length()));
+      } else {
+        throw new IllegalArgumentException("Unknown argument: " + arg);
+      }
+    }
+
+    final Random random = new Random(0);
+    for (final int numClasses : NUM_CLASSES) {
+      for (final int numBoxes : NUM_BOXES) {
+        final float[] boxes = new float[numBoxes * 4];
+        final float[] scores = new float[numBoxes * numClasses];
+        fillCandidates(random, boxes, scores, numBoxes, numClasses);
+
+        for (final int maxCandidates : new int[] {MAX_CANDIDATES_PER_CLASS, numBoxes}) {
+          final NonMaxSuppression nms = new NonMaxSuppression(
+              numBoxes, numClasses, SCORE_THRESHOLD, IOU_THRESHOLD, maxCandidates,
+              MAX_DETECTIONS);
+          // Fewer iterations without the pre-filter, which can take long for large inputs.
+          final int runs = maxCandidates == numBoxes ? Math.max(1, iterations / 10) : iterations;
+          final BenchmarkStats stats = new BenchmarkStats(
+              String.format("%5d boxes %2d classes, %5d per class", numBoxes, numClasses,
+                  maxCandidates),
+              runs);
+          int numDetections = 0;
+          for (int i = 0; i < WARM_UP_ITERATIONS + runs; ++i) {
+            final long startNs = System.nanoTime();
+            numDetections = nms.run(boxes, scores, numBoxes);
+            if (i >= WARM_UP_ITERATIONS) {
+              stats.add(System.nanoTime() - startNs);
+            }
+          }
+          stats.print();
+          if (numDetections == 0) {
+            throw new IllegalStateException("No detections, the inputs are not representative.");
+          }
+        }
+      }
+    }
+  }
+
+  // Scatters boxes around NUM_OBJECTS centers in the unit square, scoring boxes higher the closer
+  // they are to their object, for the object's class.
+  private static void fillCandidates(
+      final Random random, final float[] boxes, final float[] scores, final int numBoxes,
+      final int numClasses) {
+    final float[] centers = new float[NUM_OBJECTS * 2];
+    final int[] classes = new int[NUM_OBJECTS];
+    for (int o = 0; o < NUM_OBJECTS; ++o) {
+      centers[o * 2] = random.nextFloat();
+      centers[o * 2 + 1] = random.nextFloat();
+      classes[o] = random.nextInt(numClasses);
+    }
+
+    for (int b = 0; b < numBoxes; ++b) {
+      final int o = random.nextInt(NUM_OBJECTS);
+      final float offsetY = (float) random.nextGaussian() * 0.05f;
+      final float offsetX = (float) random.nextGaussian() * 0.05f;
+      final float halfSize = 0.05f + random.nextFloat() * 0.05f;
+      final float centerY = centers[o * 2] + offsetY;
+      final float centerX = centers[o * 2 + 1] + offsetX;
+      boxes[b * 4] = centerY - halfSize;
+      boxes[b * 4 + 1] = centerX - halfSize;
+      boxes[b * 4 + 2] = centerY + halfSize;
+      boxes[b * 4 + 3] = centerX + halfSize;
+
+      final float fit = (float) Math.exp(-(offsetY * offsetY + offsetX * offsetX) * 200);
+      for (int c = 0; c < numClasses; ++c) {
+        scores[b * numClasses + c] =
+            c == classes[o] ? fit * (0.5f + 0.5f * random.nextFloat()) : random.nextFloat() * 0.2f;
+      }
+    }
+  }
+}
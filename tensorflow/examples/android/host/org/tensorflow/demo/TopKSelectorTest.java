@@ -0,0 +1,163 @@
+/* Copyright 2016 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.tensorflow.demo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for TopKSelector. There is no test framework in this workspace, so this is a plain main
+ * that exits with a non-zero status on the first failed check.
+ */
+public final class TopKSelectorTest {
+  private TopKSelectorTest() {}
+
+  public static void main(final String[] args) {
+    testSelectsBestFirst();
+    testTiesPreferLowerIndex();
+    testFewerCandidatesThanK();
+    testAllBelowThreshold();
+    testStridedSelect();
+    testMatchesSortedReference();
+    testRankOutOfRange();
+    System.out.println("TopKSelectorTest passed.");
+  }
+
+  private static void testSelectsBestFirst() {
+    final TopKSelector selector = new TopKSelector(3, 0.0f);
+    final float[] scores = {0.1f, 0.5f, 0.3f, 0.9f, 0.2f};
+    check(selector.select(scores) == 3, "three results");
+    checkIndices(selector, 3, 1, 2);
+    check(selector.getScore(0) == 0.9f, "best score first");
+  }
+
+  private static void testTiesPreferLowerIndex() {
+    final TopKSelector selector = new TopKSelector(3, 0.0f);
+    // The cut falls inside the run of 0.5s, so only the first two of them are kept.
+    final float[] scores = {0.5f, 0.7f, 0.5f, 0.5f, 0.7f, 0.5f};
+    check(selector.select(scores) == 3, "three results");
+    checkIndices(selector, 1, 4, 0);
+
+    final float[] allEqual = {0.4f, 0.4f, 0.4f, 0.4f};
+    check(selector.select(allEqual) == 3, "three results of equal scores");
+    checkIndices(selector, 0, 1, 2);
+  }
+
+  private static void testFewerCandidatesThanK() {
+    final TopKSelector selector = new TopKSelector(5, 0.0f);
+    final float[] scores = {0.2f, 0.6f};
+    check(selector.select(scores) == 2, "only as many results as candidates");
+    checkIndices(selector, 1, 0);
+
+    check(selector.select(new float[0]) == 0, "no results without candidates");
+    check(selector.size() == 0, "size reflects the last selection");
+  }
+
+  private static void testAllBelowThreshold() {
+    final TopKSelector selector = new TopKSelector(3, 0.5f);
+    // Scores equal to the threshold are not selected either.
+    final float[] scores = {0.1f, 0.5f, 0.3f, 0.5f};
+    check(selector.select(scores) == 0, "nothing above the threshold");
+
+    final float[] someAbove = {0.1f, 0.5f, 0.51f, 0.3f};
+    check(selector.select(someAbove) == 1, "only scores above the threshold");
+    checkIndices(selector, 2);
+  }
+
+  private static void testStridedSelect() {
+    final TopKSelector selector = new TopKSelector(2, 0.0f);
+    // Column 1 of a 4x3 row-major matrix holds 0.2, 0.8, 0.4, 0.6.
+    final float[] matrix = {
+      0.9f, 0.2f, 0.0f,
+      0.0f, 0.8f, 0.9f,
+      0.9f, 0.4f, 0.0f,
+      0.0f, 0.6f, 0.9f,
+    };
+    check(selector.select(matrix, 1, 3, 4) == 2, "two results from the column");
+    checkIndices(selector, 1, 3);
+  }
+
+  private static void testMatchesSortedReference() {
+    final Random random = new Random(0);
+    for (int round = 0; round < 200; ++round) {
+      final int k = 1 + random.nextInt(10);
+      final float threshold = random.nextFloat() * 0.5f;
+      final float[] scores = new float[random.nextInt(100)];
+      for (int i = 0; i < scores.length; ++i) {
+        // Few distinct values, so ties are common.
+        scores[i] = random.nextInt(20) / 20.0f;
+      }
+
+      final List<Integer> expected = new ArrayList<Integer>();
+      for (int i = 0; i < scores.length; ++i) {
+        if (scores[i] > threshold) {
+          expected.add(i);
+        }
+      }
+      Collections.sort(expected, new Comparator<Integer>() {
+        @Override
+        public int compare(final Integer a, final Integer b) {
+          final int byScore = Float.compare(scores[b], scores[a]);
+          return byScore != 0 ? byScore : a.compareTo(b);
+        }
+      });
+
+      final TopKSelector selector = new TopKSelector(k, threshold);
+      final int size = selector.select(scores);
+      check(size == Math.min(k, expected.size()), "round " + round + ": result count");
+      for (int rank = 0; rank < size; ++rank) {
+        check(selector.getIndex(rank) == expected.get(rank),
+            "round " + round + ": index at rank " + rank);
+        check(selector.getScore(rank) == scores[expected.get(rank)],
+            "round " + round + ": score at rank " + rank);
+      }
+    }
+  }
+
+  private static void testRankOutOfRange() {
+    final TopKSelector selector = new TopKSelector(3, 0.0f);
+    selector.select(new float[] {0.5f});
+    try {
+      selector.getIndex(1);
+      fail("rank beyond the results is rejected");
+    } catch (final IndexOutOfBoundsException e) {
+      // Expected.
+    }
+  }
+
+  private static void checkIndices(final TopKSelector selector, final int... expected) {
+    check(selector.size() == expected.length,
+        "expected " + expected.length + " results, got " + selector.size());
+    for (int rank = 0; rank < expected.length; ++rank) {
+      check(selector.getIndex(rank) == expected[rank],
+          "expected index " + expected[rank] + " at rank " + rank + ", got "
+              + selector.getIndex(rank));
+    }
+  }
+
+  private static void check(final boolean condition, final String message) {
+    if (!condition) {
+      fail(message);
+    }
+  }
+
+  private static void fail(final String message) {
+    System.err.println("FAILED: " + message);
+    System.exit(1);
+  }
+}
@@ -0,0 +1,162 @@
+/* Copyright 2016 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that the Java conversions in JavaImageUtils produce exactly the output of the native
+ * ones in jni/imageutils_jni.cc, by running every ImageUtils conversion on random buffers once
+ * with each implementation. Requires libtensorflow_demo.so on java.library.path. There is no test
+ * framework in this workspace, so this is a plain main that exits with a non-zero status on the
+ * first mismatch.
+ */
+public final class ImageUtilsParityTest {
+  // Even and odd sizes, as odd dimensions round the chroma planes up.
+  private static final int[][] SIZES = {{640, 480}, {200, 151}, {37, 23}, {2, 2}};
+
+  // Strides of the planar input, larger than the image as camera buffers often are.
+  private static final int Y_ROW_PADDING = 3;
+  private static final int UV_ROW_PADDING = 5;
+  private static final int UV_PIXEL_STRIDE = 2;
+
+  private static final Random random = new Random(0);
+
+  private ImageUtilsParityTest() {}
+
+  public static void main(final String[] args) {
+    if (!ImageUtils.isNativeAvailable()) {
+      fail("libtensorflow_demo.so could not be loaded, check java.library.path.");
+    }
+    for (final int[] size : SIZES) {
+      final int width = size[0];
+      final int height = size[1];
+      testYUV420SPToARGB8888(width, height, false);
+      testYUV420SPToARGB8888(width, height, true);
+      // Not at half size: there the native code reads the luma plane as a whole semi-planar
+      // image, while the Java code downsamples the planes, as documented in JavaImageUtils.
+      testYUV420ToARGB8888(width, height);
+      testYUV420SPToRGB565(width, height);
+      testARGB8888ToYUV420SP(width, height);
+      testRGB565ToYUV420SP(width, height);
+    }
+    System.out.println("ImageUtilsParityTest passed.");
+  }
+
+  private static void testYUV420SPToARGB8888(
+      final int width, final int height, final boolean halfSize) {
+    final byte[] input = randomBytes(ImageUtils.getYUVByteSize(width, height));
+    final int[] expected = randomInts(width * height);
+    final int[] actual = expected.clone();
+
+    ImageUtils.setUseNative(true);
+    ImageUtils.convertYUV420SPToARGB8888(input, expected, width, height, halfSize);
+    ImageUtils.setUseNative(false);
+    ImageUtils.convertYUV420SPToARGB8888(input, actual, width, height, halfSize);
+    check(Arrays.equals(expected, actual),
+        "convertYUV420SPToARGB8888 " + describe(width, height, halfSize));
+  }
+
+  private static void testYUV420ToARGB8888(final int width, final int height) {
+    final int yRowStride = width + Y_ROW_PADDING;
+    final int uvRowStride = width + UV_ROW_PADDING;
+    final byte[] y = randomBytes(yRowStride * height);
+    final byte[] u = randomBytes(uvRowStride * ((height + 1) / 2));
+    final byte[] v = randomBytes(uvRowStride * ((height + 1) / 2));
+    final int[] expected = randomInts(width * height);
+    final int[] actual = expected.clone();
+
+    ImageUtils.setUseNative(true);
+    ImageUtils.convertYUV420ToARGB8888(
+        y, u, v, expected, width, height, yRowStride, uvRowStride, UV_PIXEL_STRIDE, false);
+    ImageUtils.setUseNative(false);
+    ImageUtils.convertYUV420ToARGB8888(
+        y, u, v, actual, width, height, yRowStride, uvRowStride, UV_PIXEL_STRIDE, false);
+    check(Arrays.equals(expected, actual),
+        "convertYUV420ToARGB8888 " + describe(width, height, false));
+  }
+
+  private static void testYUV420SPToRGB565(final int width, final int height) {
+    final byte[] input = randomBytes(ImageUtils.getYUVByteSize(width, height));
+    final byte[] expected = randomBytes(width * height * 2);
+    final byte[] actual = expected.clone();
+
+    ImageUtils.setUseNative(true);
+    ImageUtils.convertYUV420SPToRGB565(input, expected, width, height);
+    ImageUtils.setUseNative(false);
+    ImageUtils.convertYUV420SPToRGB565(input, actual, width, height);
+    check(Arrays.equals(expected, actual),
+        "convertYUV420SPToRGB565 " + describe(width, height, false));
+  }
+
+  private static void testARGB8888ToYUV420SP(final int width, final int height) {
+    final int[] input = randomInts(width * height);
+    final byte[] expected = randomBytes(ImageUtils.getYUVByteSize(width, height));
+    final byte[] actual = expected.clone();
+
+    ImageUtils.setUseNative(true);
+    ImageUtils.convertARGB8888ToYUV420SP(input, expected, width, height);
+    ImageUtils.setUseNative(false);
+    ImageUtils.convertARGB8888ToYUV420SP(input, actual, width, height);
+    check(Arrays.equals(expected, actual),
+        "convertARGB8888ToYUV420SP " + describe(width, height, false));
+  }
+
+  private static void testRGB565ToYUV420SP(final int width, final int height) {
+    final byte[] input = randomBytes(width * height * 2);
+    final byte[] expected = randomBytes(ImageUtils.getYUVByteSize(width, height));
+    final byte[] actual = expected.clone();
+
+    ImageUtils.setUseNative(true);
+    ImageUtils.convertRGB565ToYUV420SP(input, expected, width, height);
+    ImageUtils.setUseNative(false);
+    ImageUtils.convertRGB565ToYUV420SP(input, actual, width, height);
+    check(Arrays.equals(expected, actual),
+        "convertRGB565ToYUV420SP " + describe(width, height, false));
+  }
+
+  private static byte[] randomBytes(final int length) {
+    final byte[] bytes = new byte[length];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+
+  // Output buffers start out with the same random contents, so that pixels one implementation
+  // writes and the other skips are caught too.
+  private static int[] randomInts(final int length) {
+    final int[] ints = new int[length];
+    for (int i = 0; i < length; ++i) {
+      ints[i] = random.nextInt();
+    }
+    return ints;
+  }
+
+  private static String describe(final int width, final int height, final boolean halfSize) {
+    return width + "x" + height + (halfSize ? " at half size" : "");
+  }
+
+  private static void check(final boolean condition, final String message) {
+    if (!condition) {
+      fail("Java and native outputs differ: " + message);
+    }
+  }
+
+  private static void fail(final String message) {
+    System.err.println("FAILED: " + message);
+    System.exit(1);
+  }
+}
@@ -0,0 +1,30 @@
+/* Copyright 2016 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package android.content.res;
+
+import java.io.InputStream;
+
+/**
+ * Compile-time stand-in for the Android class of the same name, used only by the host build of
+ * the demo. It is never linked in, so the code paths using it remain Android-only.
+ */
+public final class AssetManager {
+  private AssetManager() {}
+
+  public InputStream open(final String fileName) {
+    throw new RuntimeException("Stub!");
+  }
+}
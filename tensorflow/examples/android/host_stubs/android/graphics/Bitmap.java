@@ -0,0 +1,56 @@
+/* Copyright 2016 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package android.graphics;
+
+import java.io.OutputStream;
+
+/**
+ * Compile-time stand-in for the Android class of the same name, used only by the host build of
+ * the demo. It is never linked in, so the code paths using it remain Android-only.
+ */
+public final class Bitmap {
+  public enum CompressFormat {
+    JPEG,
+    PNG,
+    WEBP,
+  }
+
+  private Bitmap() {}
+
+  public int getWidth() {
+    throw new RuntimeException("Stub!");
+  }
+
+  public int getHeight() {
+    throw new RuntimeException("Stub!");
+  }
+
+  public void getPixels(
+      final int[] pixels,
+      final int offset,
+      final int stride,
+      final int x,
+      final int y,
+      final int width,
+      final int height) {
+    throw new RuntimeException("Stub!");
+  }
+
+  public boolean compress(
+      final CompressFormat format, final int quality, final OutputStream stream) {
+    throw new RuntimeException("Stub!");
+  }
+}
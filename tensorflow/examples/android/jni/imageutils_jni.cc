@@ -34,26 +34,26 @@ extern "C" {
 #endif
 
 JNIEXPORT void JNICALL
-IMAGEUTILS_METHOD(convertYUV420SPToARGB8888)(
+IMAGEUTILS_METHOD(nativeConvertYUV420SPToARGB8888)(
     JNIEnv* env, jclass clazz, jbyteArray input, jintArray output,
     jint width, jint height, jboolean halfSize);
 
-JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420ToARGB8888)(
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(nativeConvertYUV420ToARGB8888)(
     JNIEnv* env, jclass clazz, jbyteArray y, jbyteArray u, jbyteArray v,
     jintArray output, jint width, jint height, jint y_row_stride,
     jint uv_row_stride, jint uv_pixel_stride, jboolean halfSize);
 
-JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420SPToRGB565)(
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(nativeConvertYUV420SPToRGB565)(
     JNIEnv* env, jclass clazz, jbyteArray input, jbyteArray output, jint width,
     jint height);
 
 JNIEXPORT void JNICALL
-IMAGEUTILS_METHOD(convertARGB8888ToYUV420SP)(
+IMAGEUTILS_METHOD(nativeConvertARGB8888ToYUV420SP)(
     JNIEnv* env, jclass clazz, jintArray input, jbyteArray output,
     jint width, jint height);
 
 JNIEXPORT void JNICALL
-IMAGEUTILS_METHOD(convertRGB565ToYUV420SP)(
+IMAGEUTILS_METHOD(nativeConvertRGB565ToYUV420SP)(
     JNIEnv* env, jclass clazz, jbyteArray input, jbyteArray output,
     jint width, jint height);
 
@@ -62,7 +62,7 @@ IMAGEUTILS_METHOD(convertRGB565ToYUV420SP)(
 #endif
 
 JNIEXPORT void JNICALL
-IMAGEUTILS_METHOD(convertYUV420SPToARGB8888)(
+IMAGEUTILS_METHOD(nativeConvertYUV420SPToARGB8888)(
     JNIEnv* env, jclass clazz, jbyteArray input, jintArray output,
     jint width, jint height, jboolean halfSize) {
   jboolean inputCopy = JNI_FALSE;
@@ -86,7 +86,7 @@ IMAGEUTILS_METHOD(convertYUV420SPToARGB8888)(
   env->ReleaseIntArrayElements(output, o, 0);
 }
 
-JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420ToARGB8888)(
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(nativeConvertYUV420ToARGB8888)(
     JNIEnv* env, jclass clazz, jbyteArray y, jbyteArray u, jbyteArray v,
     jintArray output, jint width, jint height, jint y_row_stride,
     jint uv_row_stride, jint uv_pixel_stride, jboolean halfSize) {
@@ -116,7 +116,7 @@ JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420ToARGB8888)(
   env->ReleaseIntArrayElements(output, o, 0);
 }
 
-JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420SPToRGB565)(
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(nativeConvertYUV420SPToRGB565)(
     JNIEnv* env, jclass clazz, jbyteArray input, jbyteArray output, jint width,
     jint height) {
   jboolean inputCopy = JNI_FALSE;
@@ -134,7 +134,7 @@ JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420SPToRGB565)(
 }
 
 JNIEXPORT void JNICALL
-IMAGEUTILS_METHOD(convertARGB8888ToYUV420SP)(
+IMAGEUTILS_METHOD(nativeConvertARGB8888ToYUV420SP)(
     JNIEnv* env, jclass clazz, jintArray input, jbyteArray output,
     jint width, jint height) {
   jboolean inputCopy = JNI_FALSE;
@@ -152,7 +152,7 @@ IMAGEUTILS_METHOD(convertARGB8888ToYUV420SP)(
 }
 
 JNIEXPORT void JNICALL
-IMAGEUTILS_METHOD(convertRGB565ToYUV420SP)(
+IMAGEUTILS_METHOD(nativeConvertRGB565ToYUV420SP)(
     JNIEnv* env, jclass clazz, jbyteArray input, jbyteArray output,
     jint width, jint height) {
   jboolean inputCopy = JNI_FALSE;
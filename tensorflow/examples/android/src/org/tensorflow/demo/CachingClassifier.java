@@ -0,0 +1,166 @@
+/* Copyright 2016 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.tensorflow.demo.env.Logger;
+
+/**
+ * A Classifier that skips inference for images perceptually similar to one recognized recently.
+ * Results are cached by the pHash of the image, as returned by ImagePHash.culcPHashLong, and
+ * returned for any later image whose hash is within a configurable Hamming distance, until they
+ * expire or are evicted as least recently used. With the default hash size the hash has 49 bits,
+ * see ImagePHash.getHashBits, so maxDistance is out of 49.
+ */
+public class CachingClassifier implements Classifier {
+  private static final Logger LOGGER = new Logger();
+
+  private final Classifier classifier;
+  private final ImagePHash imagePHash;
+  private final int maxDistance;
+  private final long timeToLiveMs;
+  private final LinkedHashMap<Long, CachedResult> cache;
+
+  private long hitCount = 0;
+  private long missCount = 0;
+
+  private static final class CachedResult {
+    final List<Recognition> recognitions;
+    final long creationTimeMs;
+
+    CachedResult(final List<Recognition> recognitions, final long creationTimeMs) {
+      this.recognitions = recognitions;
+      this.creationTimeMs = creationTimeMs;
+    }
+  }
+
+  /**
+   * @param classifier The classifier to call on a cache miss.
+   * @param maxEntries The maximum number of cached results.
+   * @param maxDistance The maximum Hamming distance between hashes that counts as a hit.
+   * @param timeToLiveMs How long a result stays valid after it was computed.
+   */
+  public CachingClassifier(
+      final Classifier classifier,
+      final int maxEntries,
+      final int maxDistance,
+      final long timeToLiveMs) {
+    this.classifier = classifier;
+    this.imagePHash = new ImagePHash();
+    this.maxDistance = maxDistance;
+    this.timeToLiveMs = timeToLiveMs;
+    // Access order makes the eldest entry the least recently used one.
+    this.cache = new LinkedHashMap<Long, CachedResult>(maxEntries, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<Long, CachedResult> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  @Override
+  public List<Recognition> recognizeImage(final Bitmap bitmap) {
+    return recognizeImage(bitmap, imagePHash.culcPHashLong(bitmap));
+  }
+
+  /**
+   * Recognizes an image whose hash has already been computed by the caller, e.g. for deciding
+   * whether the frame is worth classifying at all.
+   *
+   * @param bitmap The image to classify on a cache miss.
+   * @param hash The hash of the image, or of the frame it was cropped from, as returned by
+   *     ImagePHash.culcPHashLong. All hashes passed in must be computed the same way.
+   */
+  public List<Recognition> recognizeImage(final Bitmap bitmap, final long hash) {
+    final List<Recognition> cached = lookup(hash, SystemClock.uptimeMillis());
+    if (cached != null) {
+      return cached;
+    }
+
+    final List<Recognition> recognitions =
+        Collections.unmodifiableList(classifier.recognizeImage(bitmap));
+    // An empty result may come from a failed run, which must not be served for a whole TTL.
+    if (!recognitions.isEmpty()) {
+      synchronized (this) {
+        cache.put(hash, new CachedResult(recognitions, SystemClock.uptimeMillis()));
+      }
+    }
+    return recognitions;
+  }
+
+  /**
+   * Returns the cached result closest to the hash within maxDistance, dropping expired entries on
+   * the way, or null on a miss.
+   */
+  private synchronized List<Recognition> lookup(final long hash, final long nowMs) {
+    Long bestKey = null;
+    int bestDistance = maxDistance + 1;
+
+    final Iterator<Map.Entry<Long, CachedResult>> it = cache.entrySet().iterator();
+    while (it.hasNext()) {
+      final Map.Entry<Long, CachedResult> entry = it.next();
+      if (nowMs - entry.getValue().creationTimeMs > timeToLiveMs) {
+        it.remove();
+        continue;
+      }
+      final int distance = ImagePHash.distance(hash, entry.getKey());
+      if (distance < bestDistance) {
+        bestDistance = distance;
+        bestKey = entry.getKey();
+      }
+    }
+
+    if (bestKey == null) {
+      ++missCount;
+      return null;
+    }
+    ++hitCount;
+    // Goes through get() so that the entry becomes the most recently used one.
+    return cache.get(bestKey).recognitions;
+  }
+
+  public synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  public synchronized long getMissCount() {
+    return missCount;
+  }
+
+  public synchronized float getHitRate() {
+    final long total = hitCount + missCount;
+    return total > 0 ? (float) hitCount / total : 0.0f;
+  }
+
+  public synchronized void clear() {
+    cache.clear();
+  }
+
+  @Override
+  public void close() {
+    LOGGER.i("Cache hits: %d, misses: %d", getHitCount(), getMissCount());
+    clear();
+    classifier.close();
+  }
+}
@@ -39,6 +39,7 @@ import android.hardware.camera2.TotalCaptureResult;
 import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.ImageReader;
 import android.os.Bundle;
+import android.os.Environment;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.util.Size;
@@ -51,7 +52,10 @@ import android.view.ViewGroup;
 import android.widget.Toast;
 
 import org.tensorflow.demo.env.Logger;
+import org.tensorflow.demo.env.TraceRecorder;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -69,6 +73,20 @@ public class CameraConnectionFragment extends Fragment {
    */
   private static final int MINIMUM_PREVIEW_SIZE = 320;
 
+  /**
+   * Bounds and target load for analyzing frames; see {@link CaptureGovernor}.
+   */
+  private static final float MIN_ANALYSIS_FPS = 2.0f;
+  private static final float MAX_ANALYSIS_FPS = 15.0f;
+  private static final float TARGET_ANALYSIS_UTILIZATION = 0.9f;
+
+  /**
+   * Whether trace sections are recorded while the camera runs, and dumped as Chrome trace JSON to
+   * external storage when it is paused; see {@link TraceRecorder}.
+   */
+  private static final boolean RECORD_TRACE = false;
+  private static final int TRACE_CAPACITY = 1 << 16;
+
   private RecognitionScoreView scoreView;
 
   /**
@@ -199,6 +217,11 @@ public class CameraConnectionFragment extends Fragment {
    */
   private ImageReader previewReader;
 
+  /**
+   * Picks the size and rate of the frames delivered to {@link #previewReader}.
+   */
+  private CaptureGovernor captureGovernor;
+
   /**
    * {@link android.hardware.camera2.CaptureRequest.Builder} for the camera preview
    */
@@ -291,6 +314,11 @@ public class CameraConnectionFragment extends Fragment {
   @Override
   public void onResume() {
     super.onResume();
+    // Pick up log levels changed with setprop while the app was in the background.
+    Logger.refreshLogLevels();
+    if (RECORD_TRACE) {
+      TraceRecorder.startRecording(TRACE_CAPACITY);
+    }
     startBackgroundThread();
 
     // When the screen is turned off and turned back on, the SurfaceTexture is already
@@ -308,9 +336,27 @@ public class CameraConnectionFragment extends Fragment {
   public void onPause() {
     closeCamera();
     stopBackgroundThread();
+    if (RECORD_TRACE) {
+      dumpTrace();
+    }
     super.onPause();
   }
 
+  private void dumpTrace() {
+    final File dir = new File(Environment.getExternalStorageDirectory(), "tensorflow");
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      LOGGER.w("Could not create %s", dir);
+      return;
+    }
+    final File file = new File(dir, "trace-" + System.currentTimeMillis() + ".json");
+    try {
+      TraceRecorder.dump(file);
+      LOGGER.i("Saved trace to %s", file);
+    } catch (final IOException e) {
+      LOGGER.e(e, "Could not save trace to %s", file);
+    }
+  }
+
   /**
    * Sets up member variables related to camera.
    *
@@ -351,6 +397,29 @@ public class CameraConnectionFragment extends Fragment {
         previewSize =
             chooseOptimalSize(map.getOutputSizes(SurfaceTexture.class), width, height, largest);
 
+        // Frames are analyzed in a separate, usually much smaller stream than the preview.
+        captureGovernor =
+            new CaptureGovernor(
+                map.getOutputSizes(ImageFormat.YUV_420_888),
+                previewSize,
+                TensorFlowImageListener.INPUT_SIZE,
+                MIN_ANALYSIS_FPS,
+                MAX_ANALYSIS_FPS,
+                TARGET_ANALYSIS_UTILIZATION,
+                new CaptureGovernor.Listener() {
+                  @Override
+                  public void onAnalysisSizeChanged(final Size size) {
+                    backgroundHandler.post(
+                        new Runnable() {
+                          @Override
+                          public void run() {
+                            restartCaptureSession();
+                          }
+                        });
+                  }
+                });
+        tfPreviewListener.setGovernor(captureGovernor);
+
         // We fit the aspect ratio of TextureView to the size of preview we picked.
         final int orientation = getResources().getConfiguration().orientation;
         if (orientation == Configuration.ORIENTATION_LANDSCAPE) {
@@ -470,6 +539,43 @@ public class CameraConnectionFragment extends Fragment {
    * Creates a new {@link CameraCaptureSession} for camera preview.
    */
   private void createCameraPreviewSession() {
+    startCaptureSession();
+
+    LOGGER.i("Getting assets.");
+    tfPreviewListener.initialize(
+        getActivity().getAssets(), scoreView, inferenceHandler, sensorOrientation);
+    LOGGER.i("TensorFlow initialized.");
+  }
+
+  /**
+   * Recreates the capture session after the governor changed the analysis size.
+   */
+  private void restartCaptureSession() {
+    try {
+      cameraOpenCloseLock.acquire();
+      if (null == cameraDevice) {
+        return;
+      }
+      if (null != captureSession) {
+        captureSession.close();
+        captureSession = null;
+      }
+      if (null != previewReader) {
+        previewReader.close();
+        previewReader = null;
+      }
+      startCaptureSession();
+    } catch (final InterruptedException e) {
+      throw new RuntimeException("Interrupted while trying to lock camera restart.", e);
+    } finally {
+      cameraOpenCloseLock.release();
+    }
+  }
+
+  /**
+   * Starts the preview and the analysis stream at the sizes currently chosen.
+   */
+  private void startCaptureSession() {
     try {
       final SurfaceTexture texture = textureView.getSurfaceTexture();
       assert texture != null;
@@ -486,10 +592,14 @@ public class CameraConnectionFragment extends Fragment {
 
       LOGGER.i("Opening camera preview: " + previewSize.getWidth() + "x" + previewSize.getHeight());
 
-      // Create the reader for the preview frames.
+      // Create the reader for the analyzed frames. Two images let the camera deliver the next
+      // frame while the previous one is still being processed.
+      final Size analysisSize = captureGovernor.getAnalysisSize();
+      LOGGER.i("Opening analysis stream: " + analysisSize.getWidth() + "x"
+          + analysisSize.getHeight());
       previewReader =
           ImageReader.newInstance(
-              previewSize.getWidth(), previewSize.getHeight(), ImageFormat.YUV_420_888, 1);
+              analysisSize.getWidth(), analysisSize.getHeight(), ImageFormat.YUV_420_888, 2);
 
       previewReader.setOnImageAvailableListener(tfPreviewListener, backgroundHandler);
       previewRequestBuilder.addTarget(previewReader.getSurface());
@@ -535,11 +645,6 @@ public class CameraConnectionFragment extends Fragment {
     } catch (final CameraAccessException e) {
       LOGGER.e(e, "Exception!");
     }
-
-    LOGGER.i("Getting assets.");
-    tfPreviewListener.initialize(
-        getActivity().getAssets(), scoreView, inferenceHandler, sensorOrientation);
-    LOGGER.i("TensorFlow initialized.");
   }
 
   /**
@@ -0,0 +1,187 @@
+/* Copyright 2016 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo;
+
+import android.util.Size;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.tensorflow.demo.env.Logger;
+
+/**
+ * Chooses the resolution and rate at which camera frames are analyzed, independently of the
+ * preview shown on screen.
+ *
+ * The analysis stream starts at the smallest supported size that matches the preview's aspect
+ * ratio and still covers the model input. The measured time to process a frame then drives two
+ * controls: frames are only analyzed as often as they can be processed, so none queue up, and the
+ * size is stepped down when frames take longer than the minimum rate allows, or up when the next
+ * larger size is expected to fit comfortably. Latency is assumed to scale with the pixel count.
+ */
+public class CaptureGovernor {
+  private static final Logger LOGGER = new Logger();
+
+  // Weight of the newest frame in the latency average.
+  private static final float LATENCY_SMOOTHING = 0.2f;
+  // Number of frames measured at a size before it may be changed again.
+  private static final int FRAMES_PER_DECISION = 30;
+  // A larger size is only chosen if its estimated latency stays below this share of the budget.
+  private static final float STEP_UP_MARGIN = 0.7f;
+  // Aspect ratios differing by less than this count as matching the preview.
+  private static final float ASPECT_TOLERANCE = 0.05f;
+
+  /** Notified on the thread reporting frames when the analysis size should change. */
+  public interface Listener {
+    void onAnalysisSizeChanged(Size size);
+  }
+
+  private final List<Size> candidates;
+  private final float targetUtilization;
+  private final long minIntervalMs;
+  private final float latencyBudgetMs;
+  private final Listener listener;
+
+  private int sizeIndex;
+  // The largest size that may still be tried. Lowered whenever a size proved too slow, so the
+  // governor does not keep oscillating between two sizes.
+  private int maxSizeIndex;
+  private float averageLatencyMs = -1.0f;
+  private int framesAtSize;
+  private long nextFrameDueMs;
+
+  /**
+   * @param choices The sizes the camera supports for the analysis format.
+   * @param previewSize The preview size. Analysis sizes match its aspect ratio and never exceed
+   *     it.
+   * @param minShortSide The smallest acceptable short side, usually the model input size.
+   * @param minFps The analysis rate below which the size is reduced.
+   * @param maxFps The analysis rate that is never exceeded.
+   * @param targetUtilization The share of time the pipeline should be busy, in (0, 1].
+   * @param listener Told when the analysis stream must be recreated at a new size.
+   */
+  public CaptureGovernor(
+      final Size[] choices,
+      final Size previewSize,
+      final int minShortSide,
+      final float minFps,
+      final float maxFps,
+      final float targetUtilization,
+      final Listener listener) {
+    this.targetUtilization = targetUtilization;
+    this.minIntervalMs = (long) (1000.0f / maxFps);
+    this.latencyBudgetMs = 1000.0f / minFps * targetUtilization;
+    this.listener = listener;
+
+    final float previewAspect = aspect(previewSize);
+    final long previewArea = area(previewSize);
+    candidates = new ArrayList<Size>();
+    for (final Size option : choices) {
+      if (Math.min(option.getWidth(), option.getHeight()) >= minShortSide
+          && area(option) <= previewArea
+          && Math.abs(aspect(option) - previewAspect) < ASPECT_TOLERANCE) {
+        candidates.add(option);
+      }
+    }
+    if (candidates.isEmpty()) {
+      candidates.add(previewSize);
+    }
+    Collections.sort(candidates, new Comparator<Size>() {
+      @Override
+      public int compare(final Size lhs, final Size rhs) {
+        return Long.signum(area(lhs) - area(rhs));
+      }
+    });
+    sizeIndex = 0;
+    maxSizeIndex = candidates.size() - 1;
+    logOperatingPoint("Initial");
+  }
+
+  private static float aspect(final Size size) {
+    return (float) Math.max(size.getWidth(), size.getHeight())
+        / Math.min(size.getWidth(), size.getHeight());
+  }
+
+  private static long area(final Size size) {
+    return (long) size.getWidth() * size.getHeight();
+  }
+
+  /**
+   * Returns the size the analysis stream should be created at.
+   */
+  public synchronized Size getAnalysisSize() {
+    return candidates.get(sizeIndex);
+  }
+
+  /**
+   * Returns whether a frame arriving now should be analyzed or dropped.
+   */
+  public synchronized boolean shouldAnalyze(final long nowMs) {
+    return nowMs >= nextFrameDueMs;
+  }
+
+  /**
+   * Reports the time it took to analyze a frame.
+   *
+   * @param startMs When analysis of the frame started.
+   * @param latencyMs How long the analysis took.
+   */
+  public void recordFrame(final long startMs, final long latencyMs) {
+    Size newSize = null;
+    synchronized (this) {
+      averageLatencyMs = averageLatencyMs < 0
+          ? latencyMs
+          : averageLatencyMs + LATENCY_SMOOTHING * (latencyMs - averageLatencyMs);
+
+      // Leave enough idle time that the pipeline stays at the target utilization.
+      nextFrameDueMs =
+          startMs + Math.max(minIntervalMs, (long) (averageLatencyMs / targetUtilization));
+
+      if (++framesAtSize >= FRAMES_PER_DECISION) {
+        final int previousIndex = sizeIndex;
+        if (averageLatencyMs > latencyBudgetMs && sizeIndex > 0) {
+          --sizeIndex;
+          maxSizeIndex = sizeIndex;
+        } else if (sizeIndex < maxSizeIndex
+            && averageLatencyMs * area(candidates.get(sizeIndex + 1))
+                    / area(candidates.get(sizeIndex))
+                < latencyBudgetMs * STEP_UP_MARGIN) {
+          ++sizeIndex;
+        }
+        framesAtSize = 0;
+        if (sizeIndex != previousIndex) {
+          logOperatingPoint("Adapted");
+          averageLatencyMs = -1.0f;
+          newSize = candidates.get(sizeIndex);
+        }
+      }
+    }
+    if (newSize != null && listener != null) {
+      listener.onAnalysisSizeChanged(newSize);
+    }
+  }
+
+  private void logOperatingPoint(final String reason) {
+    final Size size = candidates.get(sizeIndex);
+    final float intervalMs =
+        Math.max(minIntervalMs, Math.max(0.0f, averageLatencyMs) / targetUtilization);
+    LOGGER.i("%s analysis operating point: %dx%d at %.1f fps (latency %.1fms, budget %.1fms)",
+        reason, size.getWidth(), size.getHeight(), intervalMs > 0 ? 1000.0f / intervalMs : 0.0f,
+        averageLatencyMs, latencyBudgetMs);
+  }
+}
@@ -0,0 +1,146 @@
+/* Copyright 2016 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.tensorflow.demo.env.Logger;
+
+/**
+ * A Classifier that runs a cheap model first and only falls back to an expensive one when the
+ * cheap result cannot be trusted: when nothing was recognized, when the top confidence is below a
+ * threshold, or when the top label is one the cheap model is known to confuse.
+ */
+public class CascadeClassifier implements Classifier {
+  private static final Logger LOGGER = new Logger();
+
+  private final Classifier fastClassifier;
+  private final Classifier accurateClassifier;
+  private final float minConfidence;
+  private final Set<String> uncertainLabels;
+
+  private long numFastRuns = 0;
+  private long numEscalations = 0;
+  private long fastTimeTotalNs = 0;
+  private long accurateTimeTotalNs = 0;
+
+  /**
+   * @param fastClassifier The classifier tried first on every image.
+   * @param accurateClassifier The classifier used when the first result is not trusted.
+   * @param minConfidence Results of the fast classifier whose top confidence is below this are
+   *     escalated.
+   * @param uncertainLabels Titles which are always escalated when reported first by the fast
+   *     classifier. May be empty.
+   */
+  public CascadeClassifier(
+      final Classifier fastClassifier,
+      final Classifier accurateClassifier,
+      final float minConfidence,
+      final Set<String> uncertainLabels) {
+    this.fastClassifier = fastClassifier;
+    this.accurateClassifier = accurateClassifier;
+    this.minConfidence = minConfidence;
+    this.uncertainLabels = Collections.unmodifiableSet(new HashSet<String>(uncertainLabels));
+  }
+
+  @Override
+  public List<Recognition> recognizeImage(final Bitmap bitmap) {
+    final long fastStartNs = SystemClock.elapsedRealtimeNanos();
+    final List<Recognition> fastResults = fastClassifier.recognizeImage(bitmap);
+    final long fastTimeNs = SystemClock.elapsedRealtimeNanos() - fastStartNs;
+
+    if (!needsEscalation(fastResults)) {
+      recordRun(fastTimeNs, -1);
+      return fastResults;
+    }
+
+    final long accurateStartNs = SystemClock.elapsedRealtimeNanos();
+    final List<Recognition> accurateResults = accurateClassifier.recognizeImage(bitmap);
+    recordRun(fastTimeNs, SystemClock.elapsedRealtimeNanos() - accurateStartNs);
+    return accurateResults;
+  }
+
+  private boolean needsEscalation(final List<Recognition> results) {
+    if (results.isEmpty()) {
+      return true;
+    }
+    final Recognition top = results.get(0);
+    final Float confidence = top.getConfidence();
+    return confidence == null
+        || confidence < minConfidence
+        || uncertainLabels.contains(top.getTitle());
+  }
+
+  private synchronized void recordRun(final long fastTimeNs, final long accurateTimeNs) {
+    ++numFastRuns;
+    fastTimeTotalNs += fastTimeNs;
+    if (accurateTimeNs >= 0) {
+      ++numEscalations;
+      accurateTimeTotalNs += accurateTimeNs;
+    }
+  }
+
+  public synchronized long getNumRuns() {
+    return numFastRuns;
+  }
+
+  public synchronized long getNumEscalations() {
+    return numEscalations;
+  }
+
+  /**
+   * Returns the fraction of images that were passed on to the accurate classifier.
+   */
+  public synchronized float getEscalationRate() {
+    return numFastRuns > 0 ? (float) numEscalations / numFastRuns : 0.0f;
+  }
+
+  /**
+   * Returns the average time the fast classifier took per image.
+   */
+  public synchronized float getAverageFastTimeMs() {
+    return numFastRuns > 0 ? fastTimeTotalNs / 1e6f / numFastRuns : 0.0f;
+  }
+
+  /**
+   * Returns the average time the accurate classifier took per escalated image.
+   */
+  public synchronized float getAverageAccurateTimeMs() {
+    return numEscalations > 0 ? accurateTimeTotalNs / 1e6f / numEscalations : 0.0f;
+  }
+
+  /**
+   * Returns the average time per image over both tiers.
+   */
+  public synchronized float getAverageTimeMs() {
+    return numFastRuns > 0 ? (fastTimeTotalNs + accurateTimeTotalNs) / 1e6f / numFastRuns : 0.0f;
+  }
+
+  @Override
+  public void close() {
+    LOGGER.i("Cascade runs: %d, escalated: %.1f%%, fast: %.1fms, accurate: %.1fms, avg: %.1fms",
+        getNumRuns(), getEscalationRate() * 100.0f, getAverageFastTimeMs(),
+        getAverageAccurateTimeMs(), getAverageTimeMs());
+    fastClassifier.close();
+    accurateClassifier.close();
+  }
+}
@@ -0,0 +1,151 @@
+/* Copyright 2016 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo;
+
+import java.util.Random;
+import org.tensorflow.contrib.android.TensorFlowInferenceInterface;
+
+/**
+ * An InferenceBackend that needs neither a model nor the native library, for measuring
+ * preprocessing, result selection and pipeline overhead on their own. Each run takes a
+ * configurable time and produces pseudo-random outputs from a seeded generator, so two backends
+ * created with the same settings produce the same sequence of outputs.
+ */
+public class FakeInferenceBackend implements InferenceBackend {
+  /** The shape of the generated outputs. */
+  public enum OutputDistribution {
+    /** Every value is the same, so no class stands out. */
+    UNIFORM,
+    /** Random values normalized to sum to 1, like a softmax over noise. */
+    RANDOM,
+    /** One random class receives peakConfidence and the others share the rest. */
+    PEAKED,
+  }
+
+  private final Random random;
+  private final long latencyUs;
+  private final long latencyJitterUs;
+  private final OutputDistribution distribution;
+  private final float peakConfidence;
+
+  private long numRuns = 0;
+  private long numFilledValues = 0;
+
+  /**
+   * @param seed The seed of the output and latency generator.
+   * @param latencyUs The time each run takes.
+   * @param latencyJitterUs The maximum random amount added to each run's latency.
+   * @param distribution How output values are generated.
+   * @param peakConfidence The value of the winning class for PEAKED outputs, in [0, 1].
+   */
+  public FakeInferenceBackend(
+      final long seed,
+      final long latencyUs,
+      final long latencyJitterUs,
+      final OutputDistribution distribution,
+      final float peakConfidence) {
+    this.random = new Random(seed);
+    this.latencyUs = latencyUs;
+    this.latencyJitterUs = latencyJitterUs;
+    this.distribution = distribution;
+    this.peakConfidence = peakConfidence;
+  }
+
+  @Override
+  public int initialize(final String modelFilename) {
+    return 0;
+  }
+
+  @Override
+  public void prepareRun(final String[] outputNames) {}
+
+  @Override
+  public void fillNodeFloat(
+      final String inputName, final int x, final int y, final int z, final int d,
+      final float[] values) {
+    numFilledValues += values.length;
+  }
+
+  @Override
+  public int run() {
+    ++numRuns;
+    long remainingUs = latencyUs;
+    if (latencyJitterUs > 0) {
+      remainingUs += (long) (random.nextDouble() * latencyJitterUs);
+    }
+    if (remainingUs > 0) {
+      try {
+        Thread.sleep(remainingUs / 1000, (int) (remainingUs % 1000) * 1000);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return TensorFlowInferenceInterface.STATUS_CANCELLED;
+      }
+    }
+    return 0;
+  }
+
+  @Override
+  public void readNodeFloat(final String outputName, final float[] values) {
+    final int n = values.length;
+    if (n == 0) {
+      return;
+    }
+    switch (distribution) {
+      case UNIFORM:
+        for (int i = 0; i < n; ++i) {
+          values[i] = 1.0f / n;
+        }
+        break;
+      case RANDOM:
+        float sum = 0.0f;
+        for (int i = 0; i < n; ++i) {
+          values[i] = random.nextFloat();
+          sum += values[i];
+        }
+        for (int i = 0; i < n; ++i) {
+          values[i] /= sum;
+        }
+        break;
+      case PEAKED:
+        final int peak = random.nextInt(n);
+        float restSum = 0.0f;
+        for (int i = 0; i < n; ++i) {
+          values[i] = i == peak ? 0.0f : random.nextFloat();
+          restSum += values[i];
+        }
+        final float restScale = restSum > 0.0f ? (1.0f - peakConfidence) / restSum : 0.0f;
+        for (int i = 0; i < n; ++i) {
+          values[i] *= restScale;
+        }
+        values[peak] = peakConfidence;
+        break;
+    }
+  }
+
+  public long getNumRuns() {
+    return numRuns;
+  }
+
+  /**
+   * Returns the number of input values filled so far, to check that preprocessing ran.
+   */
+  public long getNumFilledValues() {
+    return numFilledValues;
+  }
+
+  @Override
+  public void close() {}
+}
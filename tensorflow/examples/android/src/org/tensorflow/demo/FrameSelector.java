@@ -0,0 +1,157 @@
+/* Copyright 2016 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+
+/**
+ * Picks the most informative of a short run of candidate frames, so that only one frame per window
+ * is passed on to the expensive stages instead of whichever frame happened to arrive first.
+ *
+ * Candidates are scored by the caller with cheap measures, typically {@link #lumaSharpness} scaled
+ * by how far the frame's hash is from the background. Only the best candidate so far is kept, as a
+ * copy of its pixels, so memory does not grow with the window. A window is complete once it holds
+ * windowSize candidates or windowMs have passed since its first candidate. Not thread-safe.
+ */
+public class FrameSelector {
+  private final int windowSize;
+  private final long windowMs;
+
+  private final int width;
+  private final int height;
+  private final int[] bestPixels;
+  private final Bitmap selected;
+
+  private int numCandidates;
+  private long windowStartMs;
+  private float bestScore;
+  private long bestHash;
+
+  /**
+   * @param windowSize The number of candidates after which a window is complete.
+   * @param windowMs The time after the first candidate after which a window is complete.
+   * @param width The width of the candidate bitmaps.
+   * @param height The height of the candidate bitmaps.
+   */
+  public FrameSelector(final int windowSize, final long windowMs, final int width, final int height) {
+    this.windowSize = windowSize;
+    this.windowMs = windowMs;
+    this.width = width;
+    this.height = height;
+    this.bestPixels = new int[width * height];
+    this.selected = Bitmap.createBitmap(width, height, Config.ARGB_8888);
+  }
+
+  /**
+   * Returns the mean squared luma gradient of a region, a cheap measure of focus and motion blur.
+   * Only every step-th pixel of every step-th row is sampled.
+   *
+   * @param luma The luma plane.
+   * @param rowStride The distance in bytes between rows of the luma plane.
+   * @param left The left edge of the region.
+   * @param top The top edge of the region.
+   * @param regionWidth The width of the region.
+   * @param regionHeight The height of the region.
+   * @param step The sampling step, at least 1.
+   */
+  public static float lumaSharpness(
+      final byte[] luma,
+      final int rowStride,
+      final int left,
+      final int top,
+      final int regionWidth,
+      final int regionHeight,
+      final int step) {
+    long sum = 0;
+    int count = 0;
+    // The last row and column have no right or lower neighbour.
+    for (int y = top; y < top + regionHeight - 1; y += step) {
+      final int row = y * rowStride;
+      for (int x = left; x < left + regionWidth - 1; x += step) {
+        final int center = luma[row + x] & 0xff;
+        final int dx = (luma[row + x + 1] & 0xff) - center;
+        final int dy = (luma[row + rowStride + x] & 0xff) - center;
+        sum += dx * dx + dy * dy;
+      }
+      count += (regionWidth - 2) / step + 1;
+    }
+    return count > 0 ? (float) sum / count : 0.0f;
+  }
+
+  /**
+   * Adds a candidate to the current window, keeping a copy of it if it is the best so far.
+   *
+   * @param frame A bitmap of the size given at construction.
+   * @param hash The frame's perceptual hash, returned again if the frame is selected.
+   * @param score The frame's score; higher is better.
+   * @param nowMs The current time.
+   * @return Whether the window is complete and the selected frame should be taken.
+   */
+  public boolean offer(final Bitmap frame, final long hash, final float score, final long nowMs) {
+    if (numCandidates == 0) {
+      windowStartMs = nowMs;
+    }
+    ++numCandidates;
+    if (numCandidates == 1 || score > bestScore) {
+      frame.getPixels(bestPixels, 0, width, 0, 0, width, height);
+      bestScore = score;
+      bestHash = hash;
+    }
+    return numCandidates >= windowSize || isExpired(nowMs);
+  }
+
+  /**
+   * Returns whether the current window holds candidates and its time is up, for flushing a window
+   * when no further candidates arrive.
+   */
+  public boolean isExpired(final long nowMs) {
+    return numCandidates > 0 && nowMs - windowStartMs >= windowMs;
+  }
+
+  public boolean hasCandidates() {
+    return numCandidates > 0;
+  }
+
+  public int getNumCandidates() {
+    return numCandidates;
+  }
+
+  /**
+   * Returns the best candidate of the current window. The bitmap is reused by later windows.
+   */
+  public Bitmap getSelected() {
+    selected.setPixels(bestPixels, 0, width, 0, 0, width, height);
+    return selected;
+  }
+
+  public long getSelectedHash() {
+    return bestHash;
+  }
+
+  public float getSelectedScore() {
+    return bestScore;
+  }
+
+  /**
+   * Starts a new, empty window.
+   */
+  public void reset() {
+    numCandidates = 0;
+    bestScore = 0.0f;
+    bestHash = 0;
+  }
+}
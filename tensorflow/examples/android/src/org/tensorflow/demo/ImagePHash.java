@@ -3,6 +3,9 @@ package org.tensorflow.demo;
 import android.graphics.*;
 import android.util.Log;
 
+import org.tensorflow.demo.env.AsyncLogSink;
+import org.tensorflow.demo.env.Logger;
+
 import static java.lang.Math.PI;
 
 /*
@@ -13,6 +16,14 @@ import static java.lang.Math.PI;
 public class ImagePHash {
 
     private static final String TAG = "ImagePHASH";
+    private static final Logger LOGGER = new Logger(TAG, "");
+
+    static {
+        // Hashes are computed and compared for every frame, so their messages are written off the
+        // frame path.
+        LOGGER.setAsyncSink(AsyncLogSink.getShared());
+    }
+
     private int size = 32;
     private int smallerSize = 8;
 
@@ -46,19 +57,93 @@ public class ImagePHash {
                         counter++;
                     }
                 }
-                Log.d(TAG, "Distance: " + counter + " from " + s1.length());
+                if (LOGGER.isLoggable(Log.DEBUG)) {
+                    LOGGER.d("Distance: %d from %d", counter, s1.length());
+                }
                 return counter;
             } else {
-                Log.d(TAG, "Length of strings not equal: s1 = " + s1.length() + " and s2 = " + s2.length() + " or smaller then 0");
+                if (LOGGER.isLoggable(Log.DEBUG)) {
+                    LOGGER.d("Length of strings not equal: s1 = %d and s2 = %d or smaller then 0",
+                            s1.length(), s2.length());
+                }
                 return -1;
             }
         }
-        Log.d(TAG, "----------------------------------------");
+        LOGGER.d("----------------------------------------");
         return -1;
     }
 
+    // Hamming distance between two hashes returned by culcPHashLong.
+    public static int distance(long h1, long h2) {
+        return Long.bitCount(h1 ^ h2);
+    }
+
+    // Number of bits in a hash: the (smallerSize - 1)^2 low-frequency DCT values left after
+    // dropping the first row and column, so 49 rather than 64 with the default size of 8.
+    public int getHashBits() {
+        return (smallerSize - 1) * (smallerSize - 1);
+    }
+
+    // Returns the same getHashBits() bits as culcPHash packed into the low bits of a long, the
+    // first bit of the string being the most significant one; the unused high bits are 0.
+    // Requires getHashBits() <= 64, which holds for the default size.
+    public long culcPHashLong(Bitmap img) {
+        if (getHashBits() > 64) {
+            throw new IllegalStateException("Hash of size " + smallerSize + " does not fit a long");
+        }
+        double[][] dctVals = lowFrequencyDct(img);
+        if (dctVals == null) {
+            throw new IllegalArgumentException("Could not resize bitmap");
+        }
+        double avg = lowFrequencyAverage(dctVals);
+
+        long hash = 0;
+        for (int x = 1; x < smallerSize; x++) {
+            for (int y = 1; y < smallerSize; y++) {
+                hash = (hash << 1) | (dctVals[x][y] > avg ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
     // Returns a 'binary string' (like. 001010111011100010) which is easy to do a hamming distance on.
     public String culcPHash(Bitmap img) {
+        String hash = "";
+        double[][] dctVals = lowFrequencyDct(img);
+        if (dctVals != null) {
+            double avg = lowFrequencyAverage(dctVals);
+
+        /* 6. Further reduce the DCT.
+         * This is the magic step. Set the 64 hash bits to 0 or 1
+         * depending on whether each of the 64 DCT values is above or
+         * below the average value. The result doesn't tell us the
+         * actual low frequencies; it just tells us the very-rough
+         * relative scale of the frequencies to the mean. The result
+         * will not vary as long as the overall structure of the image
+         * remains the same; this can survive gamma and color histogram
+         * adjustments without a problem.
+         */
+
+
+            for (int x = 0; x < smallerSize; x++) {
+                for (int y = 0; y < smallerSize; y++) {
+                    if (x != 0 && y != 0) {
+                        hash += (dctVals[x][y] > avg ? "1" : "0");
+                    }
+                }
+            }
+            if (LOGGER.isLoggable(Log.DEBUG)) {
+                LOGGER.d("HASH result: %s", hash);
+            }
+        } else {
+            return null;
+        }
+        return hash;
+    }
+
+    // Steps 1 to 3 of the hash: returns the DCT of the reduced grayscale image, or null if the
+    // image could not be resized.
+    private double[][] lowFrequencyDct(Bitmap img) {
 
         /* 1. Reduce size.
          * Like Average Hash, pHash starts with a small image.
@@ -72,7 +157,6 @@ public class ImagePHash {
          * The image is reduced to a grayscale just to further simplify
          * the number of computations.
          */
-        String hash = "";
         if (img != null) {
             img = grayscale(img);
 
@@ -91,8 +175,15 @@ public class ImagePHash {
          */
             long start = System.currentTimeMillis();
             double[][] dctVals = applyDCT(vals);
-            Log.d(TAG, String.valueOf((System.currentTimeMillis() - start)));
+            if (LOGGER.isLoggable(Log.DEBUG)) {
+                LOGGER.d("DCT: %dms", System.currentTimeMillis() - start);
+            }
+            return dctVals;
+        }
+        return null;
+    }
 
+    private double lowFrequencyAverage(double[][] dctVals) {
         /* 4. Reduce the DCT.
          * This is the magic step. While the DCT is 32x32, just keep the
          * top-left 8x8. Those represent the lowest frequencies in the
@@ -104,41 +195,16 @@ public class ImagePHash {
          * since the DC coefficient can be significantly different from
          * the other values and will throw off the average).
          */
-            double total = 0;
+        double total = 0;
 
-            for (int x = 0; x < smallerSize; x++) {
-                for (int y = 0; y < smallerSize; y++) {
-                    total += dctVals[x][y];
-                }
+        for (int x = 0; x < smallerSize; x++) {
+            for (int y = 0; y < smallerSize; y++) {
+                total += dctVals[x][y];
             }
-            total -= dctVals[0][0];
-
-            double avg = total / (double) ((smallerSize * smallerSize) - 1);
-
-        /* 6. Further reduce the DCT.
-         * This is the magic step. Set the 64 hash bits to 0 or 1
-         * depending on whether each of the 64 DCT values is above or
-         * below the average value. The result doesn't tell us the
-         * actual low frequencies; it just tells us the very-rough
-         * relative scale of the frequencies to the mean. The result
-         * will not vary as long as the overall structure of the image
-         * remains the same; this can survive gamma and color histogram
-         * adjustments without a problem.
-         */
-
-
-            for (int x = 0; x < smallerSize; x++) {
-                for (int y = 0; y < smallerSize; y++) {
-                    if (x != 0 && y != 0) {
-                        hash += (dctVals[x][y] > avg ? "1" : "0");
-                    }
-                }
-            }
-            Log.d(TAG, "HASH result: " + hash);
-        } else {
-            return null;
         }
-        return hash;
+        total -= dctVals[0][0];
+
+        return total / (double) ((smallerSize * smallerSize) - 1);
     }
 
     public Bitmap resize(Bitmap bm, int newHeight, int newWidth) {
@@ -0,0 +1,149 @@
+/* Copyright 2016 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo;
+
+import org.tensorflow.demo.env.RowWorkers;
+
+/**
+ * Converts ARGB pixels, as returned by Bitmap.getPixels, to normalized float channels. Every
+ * channel value is looked up in a 256-entry table holding (value - mean) / std, so no arithmetic
+ * is done per pixel, and large images are split by rows across a small pool of worker threads.
+ */
+public class ImagePreprocessor {
+  /** Channel orders of the output. */
+  public static final int CHANNEL_ORDER_RGB = 0;
+  public static final int CHANNEL_ORDER_BGR = 1;
+
+  // Lookup tables for the first, second and third output channel.
+  private final float[] lut0 = new float[256];
+  private final float[] lut1 = new float[256];
+  private final float[] lut2 = new float[256];
+
+  // Bit offsets of the output channels within an ARGB pixel.
+  private final int shift0;
+  private final int shift2;
+
+  private final RowWorkers rowWorkers;
+  // The image being converted by process(), reused so that no garbage is created per image.
+  private final Conversion conversion = new Conversion();
+
+  /** Converts rows of the current image. */
+  private final class Conversion implements RowWorkers.RowRange {
+    int[] pixels;
+    float[] values;
+    int offset;
+    int width;
+
+    @Override
+    public void processRows(final int startRow, final int endRow) {
+      convertRows(pixels, values, offset, width, startRow, endRow);
+    }
+  }
+
+  /**
+   * @param means The mean of the red, green and blue channels.
+   * @param stds The std of the red, green and blue channels.
+   * @param channelOrder CHANNEL_ORDER_RGB or CHANNEL_ORDER_BGR.
+   * @param numThreads The number of threads working on large images, including the caller's.
+   */
+  public ImagePreprocessor(
+      final float[] means, final float[] stds, final int channelOrder, final int numThreads) {
+    if (means.length != 3 || stds.length != 3) {
+      throw new IllegalArgumentException("Expected a mean and std for each of 3 channels.");
+    }
+    // Channel c of the output is read from the pixel byte at shift, and uses the mean and std of
+    // the color stored there (ARGB: red at 16, green at 8, blue at 0).
+    final boolean bgr = channelOrder == CHANNEL_ORDER_BGR;
+    shift0 = bgr ? 0 : 16;
+    shift2 = bgr ? 16 : 0;
+    fillTable(lut0, means[bgr ? 2 : 0], stds[bgr ? 2 : 0]);
+    fillTable(lut1, means[1], stds[1]);
+    fillTable(lut2, means[bgr ? 0 : 2], stds[bgr ? 0 : 2]);
+
+    rowWorkers = new RowWorkers("PreprocessThread", numThreads);
+  }
+
+  /**
+   * Creates a preprocessor using the same mean and std for all channels.
+   */
+  public ImagePreprocessor(
+      final float mean, final float std, final int channelOrder, final int numThreads) {
+    this(new float[] {mean, mean, mean}, new float[] {std, std, std}, channelOrder, numThreads);
+  }
+
+  private static void fillTable(final float[] lut, final float mean, final float std) {
+    for (int v = 0; v < lut.length; ++v) {
+      lut[v] = (v - mean) / std;
+    }
+  }
+
+  /**
+   * Converts width * height ARGB pixels into 3 floats each.
+   *
+   * @param pixels The ARGB pixels of the image, row by row.
+   * @param values Receives the normalized channels, interleaved.
+   * @param width The width of the image.
+   * @param height The height of the image.
+   */
+  public void process(
+      final int[] pixels, final float[] values, final int width, final int height) {
+    process(pixels, values, 0, width, height);
+  }
+
+  /**
+   * Converts width * height ARGB pixels into 3 floats each, starting at the given offset of the
+   * output. This allows filling one image of a batch at a time.
+   *
+   * @param pixels The ARGB pixels of the image, row by row.
+   * @param values Receives the normalized channels, interleaved.
+   * @param offset The index in values receiving the first channel of the first pixel.
+   * @param width The width of the image.
+   * @param height The height of the image.
+   */
+  public synchronized void process(
+      final int[] pixels, final float[] values, final int offset, final int width,
+      final int height) {
+    conversion.pixels = pixels;
+    conversion.values = values;
+    conversion.offset = offset;
+    conversion.width = width;
+    try {
+      rowWorkers.forEach(height, width * height, conversion);
+    } finally {
+      conversion.pixels = null;
+      conversion.values = null;
+    }
+  }
+
+  private void convertRows(
+      final int[] pixels, final float[] values, final int offset, final int width,
+      final int startRow, final int endRow) {
+    int out = offset + startRow * width * 3;
+    for (int i = startRow * width; i < endRow * width; ++i) {
+      final int pixel = pixels[i];
+      values[out++] = lut0[(pixel >> shift0) & 0xFF];
+      values[out++] = lut1[(pixel >> 8) & 0xFF];
+      values[out++] = lut2[(pixel >> shift2) & 0xFF];
+    }
+  }
+
+  /**
+   * Stops the worker threads.
+   */
+  public void close() {
+    rowWorkers.close();
+  }
+}
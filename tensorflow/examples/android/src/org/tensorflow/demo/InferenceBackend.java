@@ -0,0 +1,60 @@
+/* Copyright 2016 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo;
+
+/**
+ * The operations the classifiers need from an inference engine: load a model, fill its inputs,
+ * run it and read its outputs. Implemented on top of TensorFlow by JniInferenceBackend, and by
+ * FakeInferenceBackend for measuring the Java side of the pipeline without a model or the native
+ * library. Free of Android types, so that the pipeline also runs on a plain JVM.
+ */
+public interface InferenceBackend {
+  /**
+   * Loads the model.
+   *
+   * @param modelFilename The filepath of the model GraphDef protocol buffer, resolved as the
+   *     backend sees fit, e.g. against its assets.
+   * @return The native status, 0 indicating success.
+   */
+  int initialize(String modelFilename);
+
+  /**
+   * Sets the output nodes computed by each run.
+   */
+  void prepareRun(String[] outputNames);
+
+  /**
+   * Fills a [x, y, z, d] float input.
+   */
+  void fillNodeFloat(String inputName, int x, int y, int z, int d, float[] values);
+
+  /**
+   * Runs the model on the filled inputs.
+   *
+   * @return The native status, 0 indicating success.
+   */
+  int run();
+
+  /**
+   * Reads a float output of the last run.
+   */
+  void readNodeFloat(String outputName, float[] values);
+
+  /**
+   * Releases the model.
+   */
+  void close();
+}
@@ -0,0 +1,93 @@
+/* Copyright 2016 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo;
+
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import org.tensorflow.contrib.android.TensorFlowInferenceInterface;
+
+/**
+ * Runs models with the native TensorFlow library through TensorFlowInferenceInterface. This is
+ * the Android edge of the pipeline: models are read through an AssetManager, and bitmaps can be
+ * normalized straight into the input tensor with fillNodeFromBitmap.
+ */
+public class JniInferenceBackend implements InferenceBackend {
+  static {
+    System.loadLibrary("tensorflow_demo");
+  }
+
+  private final TensorFlowInferenceInterface inferenceInterface =
+      new TensorFlowInferenceInterface();
+  private final AssetManager assetManager;
+
+  /**
+   * @param assetManager The asset manager to be used to load assets.
+   */
+  public JniInferenceBackend(final AssetManager assetManager) {
+    this.assetManager = assetManager;
+  }
+
+  @Override
+  public int initialize(final String modelFilename) {
+    return inferenceInterface.initializeTensorFlow(assetManager, modelFilename);
+  }
+
+  @Override
+  public void prepareRun(final String[] outputNames) {
+    inferenceInterface.prepareRun(outputNames);
+  }
+
+  @Override
+  public void fillNodeFloat(
+      final String inputName, final int x, final int y, final int z, final int d,
+      final float[] values) {
+    inferenceInterface.fillNodeFloat(inputName, x, y, z, d, values);
+  }
+
+  /**
+   * Fills a [1, height, width, 3] float input with the normalized pixels of a bitmap.
+   *
+   * @return The native status, 0 indicating success. Callers fall back to fillNodeFloat if the
+   *     bitmap cannot be read natively.
+   */
+  public int fillNodeFromBitmap(
+      final String inputName, final Bitmap bitmap, final float mean, final float std,
+      final int channelOrder) {
+    return inferenceInterface.fillNodeFromBitmap(inputName, bitmap, mean, std, channelOrder);
+  }
+
+  @Override
+  public int run() {
+    return inferenceInterface.runPrepared();
+  }
+
+  @Override
+  public void readNodeFloat(final String outputName, final float[] values) {
+    inferenceInterface.readNodeFloat(outputName, values);
+  }
+
+  /**
+   * Returns the wrapped interface, for its timing and profiling methods.
+   */
+  public TensorFlowInferenceInterface getInferenceInterface() {
+    return inferenceInterface;
+  }
+
+  @Override
+  public void close() {
+    inferenceInterface.close();
+  }
+}
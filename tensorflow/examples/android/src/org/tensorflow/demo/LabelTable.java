@@ -0,0 +1,172 @@
+/* Copyright 2016 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo;
+
+import android.content.res.AssetManager;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An immutable list of class labels, one per line of a UTF-8 file. All labels are packed into a
+ * single byte array with an offset table, and a label is only decoded into a String the first
+ * time it is requested, so large label sets cost little heap and load quickly. Lookups do not
+ * lock and may be made from any thread.
+ */
+public class LabelTable {
+  private static final String ASSET_PREFIX = "file:///android_asset/";
+
+  // Label i is stored as the UTF-8 bytes data[offsets[i]] to data[offsets[i + 1] - 1].
+  private final byte[] data;
+  private final int[] offsets;
+
+  // Labels decoded so far. Races only lead to a label being decoded more than once, and Strings
+  // are safe to publish without synchronization.
+  private final String[] decoded;
+
+  private LabelTable(final byte[] data, final int[] offsets) {
+    this.data = data;
+    this.offsets = offsets;
+    this.decoded = new String[offsets.length - 1];
+  }
+
+  /**
+   * Loads labels from an asset if the filename starts with file:///android_asset/, and from the
+   * filesystem otherwise.
+   */
+  public static LabelTable load(final AssetManager assetManager, final String filename)
+      throws IOException {
+    if (filename.startsWith(ASSET_PREFIX)) {
+      return fromAsset(assetManager, filename.substring(ASSET_PREFIX.length()));
+    }
+    return fromFile(new File(filename));
+  }
+
+  /**
+   * Loads labels from an asset. Assets are usually stored compressed, so they are streamed.
+   */
+  public static LabelTable fromAsset(final AssetManager assetManager, final String assetName)
+      throws IOException {
+    final InputStream stream = assetManager.open(assetName);
+    try {
+      return fromStream(stream);
+    } finally {
+      stream.close();
+    }
+  }
+
+  /**
+   * Loads labels from a file by memory-mapping it.
+   */
+  public static LabelTable fromFile(final File file) throws IOException {
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      final FileChannel channel = raf.getChannel();
+      return fromBuffer(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Loads labels from a stream, which is read to the end but not closed.
+   */
+  public static LabelTable fromStream(final InputStream stream) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final byte[] chunk = new byte[16 * 1024];
+    int read;
+    while ((read = stream.read(chunk)) != -1) {
+      bytes.write(chunk, 0, read);
+    }
+    return fromBuffer(ByteBuffer.wrap(bytes.toByteArray()));
+  }
+
+  /**
+   * Packs the labels held in a buffer, e.g. a memory-mapped region, from its position to its
+   * limit. The buffer's position is left unchanged.
+   */
+  public static LabelTable fromBuffer(final ByteBuffer buffer) {
+    final int start = buffer.position();
+    final int end = buffer.limit();
+
+    // First pass: count the labels and their bytes, so both arrays are allocated exactly once.
+    int numLabels = 0;
+    int numBytes = 0;
+    boolean lineHasBytes = false;
+    for (int i = start; i < end; ++i) {
+      final byte b = buffer.get(i);
+      if (b == '\n') {
+        ++numLabels;
+        lineHasBytes = false;
+      } else if (b != '\r') {
+        ++numBytes;
+        lineHasBytes = true;
+      }
+    }
+    if (lineHasBytes) {
+      // The last line has no trailing newline.
+      ++numLabels;
+    }
+
+    // Second pass: copy the label bytes without line terminators.
+    final byte[] data = new byte[numBytes];
+    final int[] offsets = new int[numLabels + 1];
+    int label = 0;
+    int pos = 0;
+    for (int i = start; i < end; ++i) {
+      final byte b = buffer.get(i);
+      if (b == '\n') {
+        offsets[++label] = pos;
+      } else if (b != '\r') {
+        data[pos++] = b;
+      }
+    }
+    offsets[numLabels] = pos;
+    return new LabelTable(data, offsets);
+  }
+
+  /**
+   * Returns the number of labels.
+   */
+  public int size() {
+    return decoded.length;
+  }
+
+  /**
+   * Returns the label at the given index, decoding it on first use.
+   */
+  public String get(final int index) {
+    String label = decoded[index];
+    if (label == null) {
+      label = new String(
+          data, offsets[index], offsets[index + 1] - offsets[index], StandardCharsets.UTF_8);
+      decoded[index] = label;
+    }
+    return label;
+  }
+
+  /**
+   * Returns the number of bytes used to store the packed labels.
+   */
+  public int getPackedSizeBytes() {
+    return data.length + offsets.length * 4;
+  }
+}
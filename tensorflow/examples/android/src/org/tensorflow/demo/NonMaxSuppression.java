@@ -0,0 +1,153 @@
+/* Copyright 2016 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo;
+
+/**
+ * Per-class greedy non-maximum suppression over boxes held in primitive arrays.
+ *
+ * Greedy NMS compares every kept box with every remaining candidate, so its cost grows
+ * quadratically with the number of candidates. Each class is therefore first cut down to its
+ * best candidates above a score threshold with a bounded heap, which needs no full sort of all
+ * boxes, and only those candidates are suppressed. All buffers are allocated up front, so running
+ * it allocates nothing. Not thread-safe; results are overwritten by the next run.
+ */
+public class NonMaxSuppression {
+  private final int maxBoxes;
+  private final int numClasses;
+  private final float iouThreshold;
+
+  private final TopKSelector candidateSelector;
+  private final TopKSelector detectionSelector;
+  private final float[] areas;
+  private final boolean[] suppressed;
+
+  // Boxes kept by the per-class pass, in no particular order across classes.
+  private final int[] keptBoxes;
+  private final int[] keptClasses;
+  private final float[] keptScores;
+  private int numKept;
+
+  /**
+   * @param maxBoxes The maximum number of boxes passed to run.
+   * @param numClasses The number of scores per box.
+   * @param scoreThreshold Boxes must score strictly above this for a class to be considered.
+   * @param iouThreshold Boxes overlapping a better box of the same class by more than this
+   *     intersection over union are dropped.
+   * @param maxCandidatesPerClass The number of best boxes of each class that are suppressed.
+   * @param maxDetections The maximum number of detections returned.
+   */
+  public NonMaxSuppression(
+      final int maxBoxes,
+      final int numClasses,
+      final float scoreThreshold,
+      final float iouThreshold,
+      final int maxCandidatesPerClass,
+      final int maxDetections) {
+    this.maxBoxes = maxBoxes;
+    this.numClasses = numClasses;
+    this.iouThreshold = iouThreshold;
+    this.candidateSelector = new TopKSelector(maxCandidatesPerClass, scoreThreshold);
+    this.detectionSelector = new TopKSelector(maxDetections, scoreThreshold);
+    this.areas = new float[maxBoxes];
+    this.suppressed = new boolean[maxCandidatesPerClass];
+    final int maxKept = numClasses * maxCandidatesPerClass;
+    this.keptBoxes = new int[maxKept];
+    this.keptClasses = new int[maxKept];
+    this.keptScores = new float[maxKept];
+  }
+
+  /**
+   * Suppresses overlapping boxes.
+   *
+   * @param boxes numBoxes boxes as consecutive [top, left, bottom, right] corners.
+   * @param scores numBoxes rows of numClasses scores.
+   * @param numBoxes The number of boxes.
+   * @return The number of detections, best first, available through the getters.
+   */
+  public int run(final float[] boxes, final float[] scores, final int numBoxes) {
+    if (numBoxes > maxBoxes) {
+      throw new IllegalArgumentException(numBoxes + " boxes exceed the maximum of " + maxBoxes);
+    }
+    for (int b = 0; b < numBoxes; ++b) {
+      final int box = b * 4;
+      areas[b] = Math.max(0.0f, boxes[box + 2] - boxes[box])
+          * Math.max(0.0f, boxes[box + 3] - boxes[box + 1]);
+    }
+
+    numKept = 0;
+    for (int c = 0; c < numClasses; ++c) {
+      // The candidates of this class, best first.
+      final int numCandidates = candidateSelector.select(scores, c, numClasses, numBoxes);
+      for (int i = 0; i < numCandidates; ++i) {
+        suppressed[i] = false;
+      }
+      for (int i = 0; i < numCandidates; ++i) {
+        if (suppressed[i]) {
+          continue;
+        }
+        final int best = candidateSelector.getIndex(i);
+        keptBoxes[numKept] = best;
+        keptClasses[numKept] = c;
+        keptScores[numKept] = candidateSelector.getScore(i);
+        ++numKept;
+        for (int j = i + 1; j < numCandidates; ++j) {
+          if (!suppressed[j]
+              && intersectionOverUnion(boxes, best, candidateSelector.getIndex(j))
+                  > iouThreshold) {
+            suppressed[j] = true;
+          }
+        }
+      }
+    }
+
+    return detectionSelector.select(keptScores, 0, 1, numKept);
+  }
+
+  private float intersectionOverUnion(final float[] boxes, final int a, final int b) {
+    final int boxA = a * 4;
+    final int boxB = b * 4;
+    final float top = Math.max(boxes[boxA], boxes[boxB]);
+    final float left = Math.max(boxes[boxA + 1], boxes[boxB + 1]);
+    final float bottom = Math.min(boxes[boxA + 2], boxes[boxB + 2]);
+    final float right = Math.min(boxes[boxA + 3], boxes[boxB + 3]);
+    if (bottom <= top || right <= left) {
+      return 0.0f;
+    }
+    final float intersection = (bottom - top) * (right - left);
+    return intersection / (areas[a] + areas[b] - intersection);
+  }
+
+  /**
+   * Returns the index into the input boxes of the detection at the given rank.
+   */
+  public int getBox(final int rank) {
+    return keptBoxes[detectionSelector.getIndex(rank)];
+  }
+
+  /**
+   * Returns the class of the detection at the given rank.
+   */
+  public int getClassIndex(final int rank) {
+    return keptClasses[detectionSelector.getIndex(rank)];
+  }
+
+  /**
+   * Returns the score of the detection at the given rank.
+   */
+  public float getScore(final int rank) {
+    return detectionSelector.getScore(rank);
+  }
+}
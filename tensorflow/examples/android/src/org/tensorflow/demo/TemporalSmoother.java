@@ -0,0 +1,221 @@
+/* Copyright 2016 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo;
+
+import java.util.Arrays;
+
+/**
+ * Smooths per-class scores over consecutive frames so that the top label does not flicker.
+ * Scores are averaged either with an exponential moving average or over a fixed window of recent
+ * frames, and the leading class only changes once another class beats it by a hysteresis margin.
+ * Once the same class has led for a number of frames it is reported as stable, which callers can
+ * use to lower their inference rate.
+ *
+ * All state is kept in arrays allocated up front, so updates do not allocate. Not thread-safe.
+ */
+public class TemporalSmoother {
+  /** Receives stability changes on the thread calling update(). */
+  public interface Listener {
+    /** The class has led for the configured number of frames. */
+    void onStable(int classIndex, float score);
+
+    /** A previously stable class has been overtaken. */
+    void onUnstable(int previousClassIndex);
+  }
+
+  private final int numClasses;
+  private final float alpha;
+  private final int windowSize;
+  private final float hysteresis;
+  private final int stableFrames;
+
+  private final float[] smoothed;
+
+  // Window mode only: the last windowSize frames, oldest overwritten first, and their sums.
+  private final float[] window;
+  private final double[] sums;
+
+  private int numFrames;
+  private int leader = -1;
+  private int framesLed;
+  private boolean stable;
+  private Listener listener;
+
+  /**
+   * Creates a smoother using an exponential moving average.
+   *
+   * @param numClasses The number of scores per frame.
+   * @param alpha The weight of the newest frame, in (0, 1].
+   * @param hysteresis How much higher another class must score to replace the leader.
+   * @param stableFrames The number of frames a class must lead for to be reported as stable.
+   */
+  public static TemporalSmoother createExponential(
+      final int numClasses, final float alpha, final float hysteresis, final int stableFrames) {
+    if (alpha <= 0.0f || alpha > 1.0f) {
+      throw new IllegalArgumentException("alpha must be in (0, 1]: " + alpha);
+    }
+    return new TemporalSmoother(numClasses, alpha, 0, hysteresis, stableFrames);
+  }
+
+  /**
+   * Creates a smoother averaging the scores of the last windowSize frames. Keeps windowSize
+   * copies of the scores.
+   *
+   * @param numClasses The number of scores per frame.
+   * @param windowSize The number of frames averaged.
+   * @param hysteresis How much higher another class must score to replace the leader.
+   * @param stableFrames The number of frames a class must lead for to be reported as stable.
+   */
+  public static TemporalSmoother createWindowed(
+      final int numClasses, final int windowSize, final float hysteresis, final int stableFrames) {
+    if (windowSize <= 0) {
+      throw new IllegalArgumentException("windowSize must be positive: " + windowSize);
+    }
+    return new TemporalSmoother(numClasses, 0.0f, windowSize, hysteresis, stableFrames);
+  }
+
+  private TemporalSmoother(
+      final int numClasses,
+      final float alpha,
+      final int windowSize,
+      final float hysteresis,
+      final int stableFrames) {
+    this.numClasses = numClasses;
+    this.alpha = alpha;
+    this.windowSize = windowSize;
+    this.hysteresis = hysteresis;
+    this.stableFrames = stableFrames;
+    this.smoothed = new float[numClasses];
+    this.window = windowSize > 0 ? new float[windowSize * numClasses] : null;
+    this.sums = windowSize > 0 ? new double[numClasses] : null;
+  }
+
+  public void setListener(final Listener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Adds the scores of a new frame.
+   */
+  public void update(final float[] scores) {
+    if (scores.length < numClasses) {
+      throw new IllegalArgumentException(
+          "Expected " + numClasses + " scores, got " + scores.length);
+    }
+
+    if (window == null) {
+      if (numFrames == 0) {
+        System.arraycopy(scores, 0, smoothed, 0, numClasses);
+      } else {
+        for (int i = 0; i < numClasses; ++i) {
+          smoothed[i] += alpha * (scores[i] - smoothed[i]);
+        }
+      }
+    } else {
+      final int slot = (numFrames % windowSize) * numClasses;
+      final int count = Math.min(numFrames + 1, windowSize);
+      final boolean full = numFrames >= windowSize;
+      for (int i = 0; i < numClasses; ++i) {
+        if (full) {
+          sums[i] -= window[slot + i];
+        }
+        sums[i] += scores[i];
+        window[slot + i] = scores[i];
+        smoothed[i] = (float) (sums[i] / count);
+      }
+    }
+    ++numFrames;
+
+    updateLeader();
+  }
+
+  private void updateLeader() {
+    int best = 0;
+    for (int i = 1; i < numClasses; ++i) {
+      if (smoothed[i] > smoothed[best]) {
+        best = i;
+      }
+    }
+
+    if (leader < 0) {
+      leader = best;
+      framesLed = 1;
+    } else if (best != leader && smoothed[best] > smoothed[leader] + hysteresis) {
+      final int previous = leader;
+      final boolean wasStable = stable;
+      leader = best;
+      framesLed = 1;
+      stable = false;
+      if (wasStable && listener != null) {
+        listener.onUnstable(previous);
+      }
+    } else {
+      ++framesLed;
+    }
+
+    if (!stable && framesLed >= stableFrames) {
+      stable = true;
+      if (listener != null) {
+        listener.onStable(leader, smoothed[leader]);
+      }
+    }
+  }
+
+  /**
+   * Returns the smoothed scores. The array is owned by the smoother and updated in place.
+   */
+  public float[] getSmoothedScores() {
+    return smoothed;
+  }
+
+  /**
+   * Returns the class currently leading after hysteresis, or -1 before the first update.
+   */
+  public int getLeader() {
+    return leader;
+  }
+
+  /**
+   * Returns whether the leader has held for the configured number of frames.
+   */
+  public boolean isStable() {
+    return stable;
+  }
+
+  /**
+   * Returns the number of consecutive frames the current leader has led for.
+   */
+  public int getFramesLed() {
+    return framesLed;
+  }
+
+  public int getNumClasses() {
+    return numClasses;
+  }
+
+  /**
+   * Forgets all frames, e.g. when the camera has moved to a new scene.
+   */
+  public void reset() {
+    numFrames = 0;
+    leader = -1;
+    framesLed = 0;
+    stable = false;
+    if (sums != null) {
+      Arrays.fill(sums, 0.0);
+    }
+  }
+}
@@ -17,30 +17,46 @@ package org.tensorflow.demo;
 
 import android.content.res.AssetManager;
 import android.graphics.Bitmap;
-import android.os.Trace;
-import android.util.Log;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Collections;
 import java.util.List;
-import java.util.PriorityQueue;
-import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.tensorflow.contrib.android.TensorFlowInferenceInterface;
+import org.tensorflow.demo.env.Logger;
+import org.tensorflow.demo.env.TraceRecorder;
 
-/** A classifier specialized to label images using TensorFlow. */
+/**
+ * A classifier specialized to label images using TensorFlow.
+ *
+ * Android types are only needed at the edges: loading from assets, classifying bitmaps and the
+ * native backend. Initialized with a LabelTable and fed with recognizePixels, the pipeline runs on
+ * a plain JVM, e.g. with a FakeInferenceBackend to measure it without a model.
+ */
 public class TensorFlowImageClassifier implements Classifier {
-  static {
-    System.loadLibrary("tensorflow_demo");
-  }
-
-  private static final String TAG = "TensorFlowImageClassifier";
+  private static final Logger LOGGER = new Logger();
 
   // Only return this many results with at least this confidence.
   private static final int MAX_RESULTS = 3;
   private static final float THRESHOLD = 0.1f;
 
+  // Number of input buffers used by recognizeImageAsync. With two slots the next frame can be
+  // preprocessed while the previous one is being run.
+  private static final int NUM_INPUT_SLOTS = 2;
+
+  // Upper bound on the threads normalizing a single frame.
+  private static final int MAX_PREPROCESS_THREADS = 4;
+
   // Config values.
   private String inputName;
   private String outputName;
@@ -49,20 +65,113 @@ public class TensorFlowImageClassifier implements Classifier {
   private float imageStd;
 
   // Pre-allocated buffers.
-  private Vector<String> labels = new Vector<String>();
+  private LabelTable labels;
+  private String[] ids;
+  private TopKSelector topKSelector;
+  private ImagePreprocessor preprocessor;
+  private TemporalSmoother smoother;
   private int[] intValues;
   private float[] floatValues;
   private float[] outputs;
   private String[] outputNames;
+  private BlockingQueue<InputSlot> freeInputSlots;
+
+  // Given at construction, or created from the assets passed to initializeTensorFlow.
+  private InferenceBackend backend;
+  private ExecutorService inferenceExecutor;
+  // Set by close() once no inference can run any more. Guarded by this.
+  private boolean closed = false;
+
+  /** Pre-allocated buffers holding one preprocessed frame. */
+  private static final class InputSlot {
+    final int[] pixels;
+    final float[] values;
+
+    InputSlot(final int inputSize) {
+      pixels = new int[inputSize * inputSize];
+      values = new float[inputSize * inputSize * 3];
+    }
+  }
+
+  /** A request of recognizeImageAsync, classifying the frame preprocessed into its slot. */
+  private final class InferenceRequest implements Callable<List<Recognition>> {
+    final InputSlot slot;
+    final RecognitionCallback callback;
+    // Claimed by the first of running and cancelling, so the slot is given back exactly once.
+    final AtomicBoolean claimed = new AtomicBoolean();
+
+    InferenceRequest(final InputSlot slot, final RecognitionCallback callback) {
+      this.slot = slot;
+      this.callback = callback;
+    }
+
+    @Override
+    public List<Recognition> call() {
+      if (!claimed.compareAndSet(false, true)) {
+        // Cancelled just as it started; the slot has already been given back.
+        return Collections.emptyList();
+      }
+      final List<Recognition> recognitions;
+      try {
+        recognitions = classify(slot.values);
+      } finally {
+        freeInputSlots.add(slot);
+      }
+      if (callback != null) {
+        callback.onRecognized(recognitions);
+      }
+      return recognitions;
+    }
+  }
+
+  /**
+   * Gives the slot of a request back when it is cancelled before running, by the caller or by
+   * close(), so that callers waiting in recognizeImageAsync for a free slot are not stuck.
+   */
+  private final class InferenceTask extends FutureTask<List<Recognition>> {
+    private final InferenceRequest request;
+
+    InferenceTask(final InferenceRequest request) {
+      super(request);
+      this.request = request;
+    }
+
+    @Override
+    protected void done() {
+      if (isCancelled() && request.claimed.compareAndSet(false, true)) {
+        freeInputSlots.add(request.slot);
+      }
+    }
+  }
+
+  /**
+   * Creates a classifier running models with the native TensorFlow library, which are loaded from
+   * the assets passed to initializeTensorFlow.
+   */
+  public TensorFlowImageClassifier() {}
+
+  /**
+   * Creates a classifier running models with the given backend, e.g. a FakeInferenceBackend for
+   * measuring the rest of the pipeline on its own.
+   */
+  public TensorFlowImageClassifier(final InferenceBackend backend) {
+    this.backend = backend;
+  }
 
-  private TensorFlowInferenceInterface inferenceInterface;
+  /**
+   * Receives the results of recognizeImageAsync on the inference thread.
+   */
+  public interface RecognitionCallback {
+    void onRecognized(List<Recognition> recognitions);
+  }
 
   /**
    * Initializes a native TensorFlow session for classifying images.
    *
    * @param assetManager The asset manager to be used to load assets.
    * @param modelFilename The filepath of the model GraphDef protocol buffer.
-   * @param labelFilename The filepath of label file for classes.
+   * @param labelFilename The filepath of label file for classes, either an asset under
+   *     file:///android_asset/ or a path on the filesystem.
    * @param numClasses The number of classes output by the model.
    * @param inputSize The input size. A square image of inputSize x inputSize is assumed.
    * @param imageMean The assumed mean of the image values.
@@ -82,21 +191,65 @@ public class TensorFlowImageClassifier implements Classifier {
       float imageStd,
       String inputName,
       String outputName) throws IOException {
+    if (backend == null) {
+      backend = new JniInferenceBackend(assetManager);
+    }
+
+    // Read the label names into memory. They are only decoded when first returned.
+    LOGGER.i("Reading labels from: %s", labelFilename);
+    return initializeTensorFlow(
+        LabelTable.load(assetManager, labelFilename),
+        modelFilename,
+        numClasses,
+        inputSize,
+        imageMean,
+        imageStd,
+        inputName,
+        outputName);
+  }
+
+  /**
+   * Initializes the classifier with labels that have already been read, without Android types.
+   *
+   * @param labels The names of the classes.
+   * @param modelFilename The filepath of the model GraphDef protocol buffer, passed to the backend.
+   * @param numClasses The number of classes output by the model.
+   * @param inputSize The input size. A square image of inputSize x inputSize is assumed.
+   * @param imageMean The assumed mean of the image values.
+   * @param imageStd The assumed std of the image values.
+   * @param inputName The label of the image input node.
+   * @param outputName The label of the output node.
+   * @return The native return value, 0 indicating success.
+   * @throws IllegalStateException If the classifier was created without a backend.
+   */
+  public int initializeTensorFlow(
+      LabelTable labels,
+      String modelFilename,
+      int numClasses,
+      int inputSize,
+      int imageMean,
+      float imageStd,
+      String inputName,
+      String outputName) {
+    if (backend == null) {
+      throw new IllegalStateException("No backend, pass one to the constructor or use assets.");
+    }
     this.inputName = inputName;
     this.outputName = outputName;
 
-    // Read the label names into memory.
-    // TODO(andrewharp): make this handle non-assets.
-    String actualFilename = labelFilename.split("file:///android_asset/")[1];
-    Log.i(TAG, "Reading labels from: " + actualFilename);
-    BufferedReader br = null;
-    br = new BufferedReader(new InputStreamReader(assetManager.open(actualFilename)));
-    String line;
-    while ((line = br.readLine()) != null) {
-      labels.add(line);
+    this.labels = labels;
+    LOGGER.i("Read %d, %d specified (%d bytes)",
+        labels.size(), numClasses, labels.getPackedSizeBytes());
+    if (labels.size() != numClasses) {
+      LOGGER.w("Label count %d does not match the %d classes of the model; unlabeled classes are "
+          + "reported by id.", labels.size(), numClasses);
+    }
+
+    // Build the class ids once instead of for every result of every frame.
+    ids = new String[numClasses];
+    for (int i = 0; i < numClasses; ++i) {
+      ids[i] = Integer.toString(i);
     }
-    br.close();
-    Log.i(TAG, "Read " + labels.size() + ", " + numClasses + " specified");
 
     this.inputSize = inputSize;
     this.imageMean = imageMean;
@@ -107,68 +260,257 @@ public class TensorFlowImageClassifier implements Classifier {
     intValues = new int[inputSize * inputSize];
     floatValues = new float[inputSize * inputSize * 3];
     outputs = new float[numClasses];
+    topKSelector = new TopKSelector(MAX_RESULTS, THRESHOLD);
+    // BGR matches the channel order the models here have always been fed.
+    preprocessor = new ImagePreprocessor(
+        imageMean,
+        imageStd,
+        ImagePreprocessor.CHANNEL_ORDER_BGR,
+        Math.min(MAX_PREPROCESS_THREADS, Runtime.getRuntime().availableProcessors()));
+    freeInputSlots = new ArrayBlockingQueue<InputSlot>(NUM_INPUT_SLOTS);
+    for (int i = 0; i < NUM_INPUT_SLOTS; ++i) {
+      freeInputSlots.add(new InputSlot(inputSize));
+    }
 
-    inferenceInterface = new TensorFlowInferenceInterface();
+    inferenceExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(final Runnable r) {
+        return new Thread(r, "InferenceThread");
+      }
+    });
 
-    return inferenceInterface.initializeTensorFlow(assetManager, modelFilename);
+    final int status = backend.initialize(modelFilename);
+    if (status == 0) {
+      // Bind the outputs once so each run reuses the native names and input tensor.
+      backend.prepareRun(outputNames);
+    }
+    return status;
   }
 
   @Override
   public List<Recognition> recognizeImage(final Bitmap bitmap) {
     // Log this method so that it can be analyzed with systrace.
-    Trace.beginSection("recognizeImage");
+    TraceRecorder.beginSection("recognizeImage");
+    final List<Recognition> recognitions = classifyBitmap(bitmap);
+    TraceRecorder.endSection(); // "recognizeImage"
+    return recognitions;
+  }
+
+  /**
+   * Classifies ARGB pixels, e.g. as returned by Bitmap.getPixels. Unlike recognizeImage this uses
+   * no Android classes, so it also runs on a plain JVM.
+   *
+   * @param pixels The image to classify, width * height pixels in rows.
+   */
+  public synchronized List<Recognition> recognizePixels(
+      final int[] pixels, final int width, final int height) {
+    checkNotClosed();
+    TraceRecorder.beginSection("recognizePixels");
+    TraceRecorder.beginSection("preprocessPixels");
+    preprocessor.process(pixels, floatValues, width, height);
+    TraceRecorder.endSection();
+    final List<Recognition> recognitions = classify(floatValues);
+    TraceRecorder.endSection(); // "recognizePixels"
+    return recognitions;
+  }
+
+  /**
+   * Classifies the bitmap on the inference thread. The bitmap is preprocessed into a free input
+   * slot on the calling thread before returning, so the caller may reuse it immediately while
+   * the previous frame is still being run. Blocks if all input slots are in use.
+   *
+   * @throws RejectedExecutionException If the classifier has been closed.
+   * @param bitmap The image to classify.
+   * @param callback Optional callback invoked on the inference thread with the results.
+   * @return A Future holding the results.
+   */
+  public Future<List<Recognition>> recognizeImageAsync(
+      final Bitmap bitmap, final RecognitionCallback callback) throws InterruptedException {
+    final InputSlot slot = freeInputSlots.take();
+    if (inferenceExecutor.isShutdown()) {
+      // Woken up by close() giving back the slots of cancelled requests.
+      freeInputSlots.add(slot);
+      throw new RejectedExecutionException("Classifier has been closed.");
+    }
+    try {
+      preprocessBitmap(bitmap, slot.pixels, slot.values);
+    } catch (final RuntimeException e) {
+      freeInputSlots.add(slot);
+      throw e;
+    }
 
-    Trace.beginSection("preprocessBitmap");
+    final InferenceTask task = new InferenceTask(new InferenceRequest(slot, callback));
+    try {
+      inferenceExecutor.execute(task);
+      return task;
+    } catch (final RejectedExecutionException e) {
+      // The classifier is being closed.
+      freeInputSlots.add(slot);
+      throw e;
+    }
+  }
+
+  private void preprocessBitmap(final Bitmap bitmap, final int[] pixels, final float[] values) {
+    TraceRecorder.beginSection("preprocessBitmap");
     // Preprocess the image data from 0-255 int to normalized float based
     // on the provided parameters.
-    bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
-    for (int i = 0; i < intValues.length; ++i) {
-      floatValues[i * 3 + 0] = ((intValues[i] & 0xFF) - imageMean) / imageStd;
-      floatValues[i * 3 + 1] = (((intValues[i] >> 8) & 0xFF) - imageMean) / imageStd;
-      floatValues[i * 3 + 2] = (((intValues[i] >> 16) & 0xFF) - imageMean) / imageStd;
+    bitmap.getPixels(pixels, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+    preprocessor.process(pixels, values, bitmap.getWidth(), bitmap.getHeight());
+    TraceRecorder.endSection();
+  }
+
+  /**
+   * Normalizes the bitmap directly into the input tensor and runs the model. Falls back to
+   * preprocessing in Java if the backend is not the native one or the native fill fails, e.g. for
+   * a bitmap that is not ARGB_8888.
+   */
+  private synchronized List<Recognition> classifyBitmap(final Bitmap bitmap) {
+    checkNotClosed();
+    if (backend instanceof JniInferenceBackend) {
+      // Channels are written in BGR order to match preprocessBitmap.
+      TraceRecorder.beginSection("fillNodeFromBitmap");
+      final int status = ((JniInferenceBackend) backend).fillNodeFromBitmap(
+          inputName, bitmap, imageMean, imageStd, TensorFlowInferenceInterface.CHANNEL_ORDER_BGR);
+      TraceRecorder.endSection();
+      if (status == 0) {
+        return runAndSelect();
+      }
     }
-    Trace.endSection();
+    preprocessBitmap(bitmap, intValues, floatValues);
+    return classify(floatValues);
+  }
 
+  /**
+   * Runs the preprocessed input through the model. Synchronized as the native session variables
+   * and the output buffer are shared between the synchronous and asynchronous paths.
+   */
+  private synchronized List<Recognition> classify(final float[] values) {
+    checkNotClosed();
     // Copy the input data into TensorFlow.
-    Trace.beginSection("fillNodeFloat");
-    inferenceInterface.fillNodeFloat(inputName, 1, inputSize, inputSize, 3, floatValues);
-    Trace.endSection();
+    TraceRecorder.beginSection("fillNodeFloat");
+    backend.fillNodeFloat(inputName, 1, inputSize, inputSize, 3, values);
+    TraceRecorder.endSection();
+    return runAndSelect();
+  }
 
+  /**
+   * Smooths results across frames. When set, the returned confidences are the smoothed scores and
+   * the smoother's leading class is always reported first, so the top result only changes once
+   * another class clearly overtakes it.
+   *
+   * @param smoother A smoother for the model's number of classes, or null to report each frame on
+   *     its own.
+   */
+  public synchronized void setSmoother(final TemporalSmoother smoother) {
+    if (smoother != null && smoother.getNumClasses() != outputs.length) {
+      throw new IllegalArgumentException("Smoother expects " + smoother.getNumClasses()
+          + " classes, the model has " + outputs.length);
+    }
+    this.smoother = smoother;
+  }
+
+  /**
+   * Runs the filled input and picks the top results, or returns an empty list if the run failed.
+   * Must hold the lock on this object.
+   */
+  private List<Recognition> runAndSelect() {
     // Run the inference call.
-    Trace.beginSection("runInference");
-    inferenceInterface.runInference(outputNames);
-    Trace.endSection();
+    TraceRecorder.beginSection("runInference");
+    final int status = backend.run();
+    TraceRecorder.endSection();
+    if (status != 0) {
+      // The outputs hold nothing from this run, so they are neither reported nor smoothed.
+      LOGGER.e("Inference failed with status %d", status);
+      return Collections.emptyList();
+    }
 
     // Copy the output Tensor back into the output array.
-    Trace.beginSection("readNodeFloat");
-    inferenceInterface.readNodeFloat(outputName, outputs);
-    Trace.endSection();
-
-    // Find the best classifications.
-    PriorityQueue<Recognition> pq = new PriorityQueue<Recognition>(3,
-        new Comparator<Recognition>() {
-          @Override
-          public int compare(Recognition lhs, Recognition rhs) {
-            // Intentionally reversed to put high confidence at the head of the queue.
-            return Float.compare(rhs.getConfidence(), lhs.getConfidence());
-          }
-        });
-    for (int i = 0; i < outputs.length; ++i) {
-      if (outputs[i] > THRESHOLD) {
-        pq.add(new Recognition(
-            "" + i, labels.get(i), outputs[i], null));
-      }
+    TraceRecorder.beginSection("readNodeFloat");
+    backend.readNodeFloat(outputName, outputs);
+    TraceRecorder.endSection();
+
+    float[] scores = outputs;
+    int leader = -1;
+    if (smoother != null) {
+      smoother.update(outputs);
+      scores = smoother.getSmoothedScores();
+      leader = smoother.getLeader();
     }
-    final ArrayList<Recognition> recognitions = new ArrayList<Recognition>();
-    for (int i = 0; i < Math.min(pq.size(), MAX_RESULTS); ++i) {
-      recognitions.add(pq.poll());
+
+    // Find the best classifications. Only the returned results are allocated.
+    TraceRecorder.beginSection("selectTopK");
+    final int numResults = topKSelector.select(scores);
+    final ArrayList<Recognition> recognitions = new ArrayList<Recognition>(numResults);
+    if (leader >= 0 && scores[leader] > THRESHOLD) {
+      recognitions.add(createRecognition(leader, scores[leader]));
+    }
+    for (int i = 0; i < numResults && recognitions.size() < MAX_RESULTS; ++i) {
+      final int index = topKSelector.getIndex(i);
+      if (index != leader) {
+        recognitions.add(createRecognition(index, scores[index]));
+      }
     }
-    Trace.endSection(); // "recognizeImage"
+    TraceRecorder.endSection();
     return recognitions;
   }
 
+  private void checkNotClosed() {
+    if (closed) {
+      throw new IllegalStateException("Classifier has been closed.");
+    }
+  }
+
+  private Recognition createRecognition(final int index, final float confidence) {
+    final String label = index < labels.size() ? labels.get(index) : ids[index];
+    return new Recognition(ids[index], label, confidence, null);
+  }
+
+  /**
+   * Stops the inference thread and releases the native session. Pending asynchronous requests are
+   * cancelled and their input slots given back, which wakes up callers waiting for a slot; a run
+   * already in progress is waited for, as the session must not be freed under it. May be called
+   * before initializeTensorFlow.
+   */
   @Override
   public void close() {
-    inferenceInterface.close();
+    if (inferenceExecutor != null) {
+      awaitInferenceShutdown();
+    }
+
+    synchronized (this) {
+      if (!closed) {
+        closed = true;
+        if (preprocessor != null) {
+          preprocessor.close();
+        }
+        if (backend != null) {
+          backend.close();
+        }
+      }
+    }
+  }
+
+  private void awaitInferenceShutdown() {
+    for (final Runnable pending : inferenceExecutor.shutdownNow()) {
+      if (pending instanceof Future) {
+        ((Future<?>) pending).cancel(false);
+      }
+    }
+
+    // Native runs cannot be interrupted, so wait for the current one however long it takes.
+    boolean interrupted = false;
+    while (true) {
+      try {
+        if (inferenceExecutor.awaitTermination(1, TimeUnit.SECONDS)) {
+          break;
+        }
+        LOGGER.w("Still waiting for the running inference to finish.");
+      } catch (final InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
   }
 }
@@ -25,7 +25,8 @@ import android.media.Image.Plane;
 import android.media.ImageReader;
 import android.media.ImageReader.OnImageAvailableListener;
 import android.os.Handler;
-import android.os.Trace;
+import android.os.SystemClock;
+import android.util.Log;
 
 import java.io.BufferedOutputStream;
 import java.io.DataOutputStream;
@@ -34,10 +35,12 @@ import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.Date;
+import java.util.List;
 
 import junit.framework.Assert;
 import org.tensorflow.demo.env.ImageUtils;
 import org.tensorflow.demo.env.Logger;
+import org.tensorflow.demo.env.TraceRecorder;
 
 import static java.lang.String.format;
 
@@ -57,7 +60,7 @@ public class TensorFlowImageListener implements OnImageAvailableListener {
   // You'll also need to update the MODEL_FILE and LABEL_FILE paths to point to
   // the ones you produced.
   private static final int NUM_CLASSES = 1001;
-  private static final int INPUT_SIZE = 224;
+  static final int INPUT_SIZE = 224;
   private static final int IMAGE_MEAN = 117;
   private static final float IMAGE_STD = 1;
   private static final String INPUT_NAME = "input:0";
@@ -71,9 +74,27 @@ public class TensorFlowImageListener implements OnImageAvailableListener {
   private static final String LABEL_FILE =
       "file:///android_asset/imagenet_comp_graph_label_strings.txt";
 
+  // Frames whose hash is closer than this to the background or the last taken frame show nothing
+  // new.
+  private static final int MIN_HASH_DISTANCE = 12;
+
+  // Taken frames closer than MIN_HASH_DISTANCE to one classified within the last
+  // CACHE_TIME_TO_LIVE_MS show the same scene and reuse its results.
+  private static final int CACHE_SIZE = 16;
+  private static final long CACHE_TIME_TO_LIVE_MS = 10000;
+
+  // Of each run of changed frames, only the best of up to this many, or of those arriving within
+  // this time, is uploaded.
+  private static final int FRAME_WINDOW_SIZE = 5;
+  private static final long FRAME_WINDOW_MS = 1000;
+  // Sharpness is sampled on every this many pixels and rows.
+  private static final int SHARPNESS_STEP = 4;
+
   private Integer sensorOrientation;
 
   private final TensorFlowImageClassifier tensorflow = new TensorFlowImageClassifier();
+  private final CachingClassifier classifier = new CachingClassifier(
+      tensorflow, CACHE_SIZE, MIN_HASH_DISTANCE - 1, CACHE_TIME_TO_LIVE_MS);
 
   private int previewWidth = 0;
   private int previewHeight = 0;
@@ -91,8 +112,18 @@ public class TensorFlowImageListener implements OnImageAvailableListener {
 
   private ImagePHash imagePHash;
 
-  private String backgroundPHash;
-  private String prevPHash;
+  // Hashes as returned by ImagePHash.culcPHashLong, computed once per frame. Both are set from
+  // the first analyzed frame.
+  private boolean hasPHash = false;
+  private long backgroundPHash;
+  private long prevPHash;
+
+  private CaptureGovernor governor;
+  // Time spent uploading during the current frame, which is not part of its analysis cost.
+  private long frameUploadMs;
+
+  private final FrameSelector frameSelector =
+      new FrameSelector(FRAME_WINDOW_SIZE, FRAME_WINDOW_MS, INPUT_SIZE, INPUT_SIZE);
 
   private boolean init = false; // FIXME: Temporary hack
   private int skipCounter = 0; // FIXME: Temporary hack
@@ -121,6 +152,13 @@ public class TensorFlowImageListener implements OnImageAvailableListener {
 //    this.prevPHash = "1010101010101110101010101010101101101010111010011";
   }
 
+  /**
+   * Lets the governor decide which frames are analyzed and tells it how long each one took.
+   */
+  public void setGovernor(final CaptureGovernor governor) {
+    this.governor = governor;
+  }
+
   private void drawResizedBitmap(final Bitmap src, final Bitmap dst) {
     Assert.assertEquals(dst.getWidth(), dst.getHeight());
     final float minDim = Math.min(src.getWidth(), src.getHeight());
@@ -148,30 +186,62 @@ public class TensorFlowImageListener implements OnImageAvailableListener {
 
   @Override
   public void onImageAvailable(final ImageReader reader) {
+    final long startMs = SystemClock.uptimeMillis();
+    if (governor != null && !governor.shouldAnalyze(startMs)) {
+      // Drop the frame so that analysis does not fall behind the camera.
+      final Image image = reader.acquireLatestImage();
+      if (image != null) {
+        image.close();
+      }
+      return;
+    }
+
+    // processImage returns early on many paths, so the section is ended here.
+    frameUploadMs = 0;
+    final boolean analyzed;
+    TraceRecorder.beginSection("imageAvailable");
+    try {
+      analyzed = processImage(reader);
+    } finally {
+      TraceRecorder.endSection();
+    }
+
+    if (analyzed && governor != null) {
+      // Only conversion and analysis count: the upload depends on the network, and lowering the
+      // analysis size or rate would not make it faster.
+      governor.recordFrame(startMs, SystemClock.uptimeMillis() - startMs - frameUploadMs);
+    }
+  }
+
+  /**
+   * Analyzes the latest frame.
+   *
+   * @return Whether the frame was analyzed, as opposed to being skipped before any work was done.
+   */
+  private boolean processImage(final ImageReader reader) {
     Image image = null;
     long startTime;
+    int yRowStride;
     try {
       image = reader.acquireLatestImage();
 
       if (image == null) {
-        return;
+        return false;
       }
 
       if (!init) {
         if (skipCounter++ > skipBarrier) init = true;
         image.close();
-        return;
+        return false;
       }
 
       // No mutex needed as this method is not reentrant.
       if (computing) {
         image.close();
-        return;
+        return false;
       }
       computing = true;
 
-      Trace.beginSection("imageAvailable");
-
       startTime = System.currentTimeMillis();
       final Plane[] planes = image.getPlanes();
 
@@ -196,7 +266,7 @@ public class TensorFlowImageListener implements OnImageAvailableListener {
         planes[i].getBuffer().get(yuvBytes[i]);
       }
 
-      final int yRowStride = planes[0].getRowStride();
+      yRowStride = planes[0].getRowStride();
       final int uvRowStride = planes[1].getRowStride();
       final int uvPixelStride = planes[1].getPixelStride();
       ImageUtils.convertYUV420ToARGB8888(
@@ -217,43 +287,63 @@ public class TensorFlowImageListener implements OnImageAvailableListener {
         image.close();
       }
       LOGGER.e(e, "Exception!");
-      Trace.endSection();
-      return;
+      return true;
     }
 
     rgbFrameBitmap.setPixels(rgbBytes, 0, previewWidth, 0, 0, previewWidth, previewHeight);
 
-    String currentPHash = imagePHash.culcPHash(rgbFrameBitmap);
-
-    if (this.prevPHash == null) this.prevPHash = currentPHash;
-    int distance_prev = imagePHash.distance(prevPHash, currentPHash);
+    final long currentPHash = imagePHash.culcPHashLong(rgbFrameBitmap);
 
-    if (this.backgroundPHash == null) this.backgroundPHash = currentPHash;
-    int distance_background = imagePHash.distance(backgroundPHash, currentPHash);
+    if (!hasPHash) {
+      prevPHash = currentPHash;
+      backgroundPHash = currentPHash;
+      hasPHash = true;
+    }
+    int distance_prev = ImagePHash.distance(prevPHash, currentPHash);
+    final int distance_background = ImagePHash.distance(backgroundPHash, currentPHash);
 
-    if (distance_prev < 12) {
+    final long nowMs = SystemClock.uptimeMillis();
+    if (distance_background < MIN_HASH_DISTANCE) {
+      if (distance_prev >= MIN_HASH_DISTANCE) {
+        prevPHash = currentPHash;
+      }
+      // The scene is back to the background, which closes the window: take the best of what was
+      // seen before, if any, so that a later change starts a window of its own.
+      if (frameSelector.hasCandidates()) {
+        takeSelectedFrame();
+      }
       computing = false;
-      return;
+      return true;
     }
-    prevPHash = currentPHash;
 
-    if (distance_background < 12) {
-      computing = false;
-      return;
+    // A window that timed out without further candidates belongs to an earlier change.
+    if (frameSelector.isExpired(nowMs)) {
+      takeSelectedFrame();
+      distance_prev = ImagePHash.distance(prevPHash, currentPHash);
     }
 
-    LOGGER.i("Distance more than 20. From background it %d. From prev image it %d.", distance_background, distance_prev);
+    // Only a frame that differs from the last taken one starts a new window.
+    if (!frameSelector.hasCandidates() && distance_prev < MIN_HASH_DISTANCE) {
+      computing = false;
+      return true;
+    }
 
     drawResizedBitmap(rgbFrameBitmap, croppedBitmap);
 
-//    if (SAVE_PREVIEW_BITMAP) {
-//      ImageUtils.saveBitmap(croppedBitmap);
-//    }
+    // Prefer sharp frames, and among those the ones that differ most from the background. The
+    // sharpness is measured on the center square that is cropped.
+    final int minDim = Math.min(previewWidth, previewHeight);
+    final float sharpness = FrameSelector.lumaSharpness(
+        yuvBytes[0], yRowStride, (previewWidth - minDim) / 2, (previewHeight - minDim) / 2,
+        minDim, minDim, SHARPNESS_STEP);
+    final float score = sharpness * distance_background;
+    if (LOGGER.isLoggable(Log.VERBOSE)) {
+      LOGGER.v("Candidate frame: background distance %d, previous distance %d, sharpness %.1f",
+          distance_background, distance_prev, sharpness);
+    }
 
-    try {
-      uploadImage(croppedBitmap);
-    } catch (IOException e) {
-      LOGGER.e("Image can't be road from camera", e);
+    if (frameSelector.offer(croppedBitmap, currentPHash, score, nowMs)) {
+      takeSelectedFrame();
     }
 
 //    handler.post(
@@ -271,7 +361,36 @@ public class TensorFlowImageListener implements OnImageAvailableListener {
 //          }
 //        });
 
-    Trace.endSection();
+    return true;
+  }
+
+  /**
+   * Passes the best frame of the current window on and starts the next window.
+   */
+  private void takeSelectedFrame() {
+    LOGGER.i("Taking best of %d frames, score %.1f",
+        frameSelector.getNumCandidates(), frameSelector.getSelectedScore());
+    prevPHash = frameSelector.getSelectedHash();
+    final Bitmap selected = frameSelector.getSelected();
+    frameSelector.reset();
+
+    // The frame's hash is already known, so a scene classified recently costs only a lookup.
+    final List<Classifier.Recognition> results = classifier.recognizeImage(selected, prevPHash);
+    scoreView.setResults(results);
+
+//    if (SAVE_PREVIEW_BITMAP) {
+//      ImageUtils.saveBitmap(selected);
+//    }
+
+    final long uploadStartMs = SystemClock.uptimeMillis();
+    try {
+      uploadImage(selected);
+    } catch (IOException e) {
+      LOGGER.e("Image can't be road from camera", e);
+    }
+    final long uploadMs = SystemClock.uptimeMillis() - uploadStartMs;
+    frameUploadMs += uploadMs;
+    LOGGER.i("Upload took %dms", uploadMs);
   }
 
   private void pHash(Bitmap src, Bitmap dst) {
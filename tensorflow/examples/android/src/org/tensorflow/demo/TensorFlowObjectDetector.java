@@ -0,0 +1,197 @@
+/* Copyright 2016 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo;
+
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.RectF;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.tensorflow.demo.env.Logger;
+import org.tensorflow.demo.env.TraceRecorder;
+
+/**
+ * A detector specialized to locate objects in images using TensorFlow. The model is expected to
+ * output a fixed number of candidate boxes as [numBoxes, 4] normalized [top, left, bottom, right]
+ * corners, and their class scores as [numBoxes, numClasses]. Overlapping candidates are merged
+ * with non-maximum suppression.
+ */
+public class TensorFlowObjectDetector implements Classifier {
+  private static final Logger LOGGER = new Logger();
+
+  // Only return this many detections with at least this confidence.
+  private static final int MAX_RESULTS = 10;
+  private static final float THRESHOLD = 0.3f;
+
+  // Candidates of the same class overlapping by more than this are merged.
+  private static final float IOU_THRESHOLD = 0.5f;
+  // Only this many of the best candidates of each class take part in suppression.
+  private static final int MAX_CANDIDATES_PER_CLASS = 100;
+
+  // Config values.
+  private String inputName;
+  private String boxesOutputName;
+  private String scoresOutputName;
+  private int inputSize;
+  private int numBoxes;
+
+  // Size of the frame results are reported in, or 0 to use the size of the input bitmap.
+  private int frameWidth;
+  private int frameHeight;
+
+  // Pre-allocated buffers.
+  private LabelTable labels;
+  private String[] ids;
+  private int[] intValues;
+  private float[] floatValues;
+  private float[] boxes;
+  private float[] scores;
+  private String[] outputNames;
+  private ImagePreprocessor preprocessor;
+  private NonMaxSuppression nonMaxSuppression;
+
+  // Given at construction, or created from the assets passed to initializeTensorFlow.
+  private InferenceBackend backend;
+
+  /**
+   * Creates a detector running models with the native TensorFlow library, which are loaded from
+   * the assets passed to initializeTensorFlow.
+   */
+  public TensorFlowObjectDetector() {}
+
+  public TensorFlowObjectDetector(final InferenceBackend backend) {
+    this.backend = backend;
+  }
+
+  /**
+   * Initializes a native TensorFlow session for detecting objects.
+   *
+   * @param assetManager The asset manager to be used to load assets.
+   * @param modelFilename The filepath of the model GraphDef protocol buffer.
+   * @param labelFilename The filepath of label file for classes.
+   * @param numClasses The number of classes scored per box.
+   * @param numBoxes The number of candidate boxes output by the model.
+   * @param inputSize The input size. A square image of inputSize x inputSize is assumed.
+   * @param imageMean The assumed mean of the image values.
+   * @param imageStd The assumed std of the image values.
+   * @param inputName The label of the image input node.
+   * @param boxesOutputName The label of the box location output node.
+   * @param scoresOutputName The label of the box score output node.
+   * @return The native return value, 0 indicating success.
+   * @throws IOException
+   */
+  public int initializeTensorFlow(
+      final AssetManager assetManager,
+      final String modelFilename,
+      final String labelFilename,
+      final int numClasses,
+      final int numBoxes,
+      final int inputSize,
+      final int imageMean,
+      final float imageStd,
+      final String inputName,
+      final String boxesOutputName,
+      final String scoresOutputName) throws IOException {
+    if (backend == null) {
+      backend = new JniInferenceBackend(assetManager);
+    }
+    this.inputName = inputName;
+    this.boxesOutputName = boxesOutputName;
+    this.scoresOutputName = scoresOutputName;
+    this.inputSize = inputSize;
+    this.numBoxes = numBoxes;
+
+    labels = LabelTable.load(assetManager, labelFilename);
+    LOGGER.i("Read %d, %d specified", labels.size(), numClasses);
+    ids = new String[numClasses];
+    for (int i = 0; i < numClasses; ++i) {
+      ids[i] = Integer.toString(i);
+    }
+
+    // Pre-allocate buffers.
+    intValues = new int[inputSize * inputSize];
+    floatValues = new float[inputSize * inputSize * 3];
+    boxes = new float[numBoxes * 4];
+    scores = new float[numBoxes * numClasses];
+    outputNames = new String[] {boxesOutputName, scoresOutputName};
+    preprocessor = new ImagePreprocessor(
+        imageMean, imageStd, ImagePreprocessor.CHANNEL_ORDER_BGR,
+        Math.min(4, Runtime.getRuntime().availableProcessors()));
+    nonMaxSuppression = new NonMaxSuppression(
+        numBoxes, numClasses, THRESHOLD, IOU_THRESHOLD, MAX_CANDIDATES_PER_CLASS, MAX_RESULTS);
+
+    final int status = backend.initialize(modelFilename);
+    if (status == 0) {
+      backend.prepareRun(outputNames);
+    }
+    return status;
+  }
+
+  /**
+   * Reports locations in a frame of the given size rather than in the input bitmap, for when the
+   * bitmap passed to recognizeImage is a scaled copy of that frame.
+   */
+  public synchronized void setFrameSize(final int width, final int height) {
+    frameWidth = width;
+    frameHeight = height;
+  }
+
+  @Override
+  public synchronized List<Recognition> recognizeImage(final Bitmap bitmap) {
+    TraceRecorder.beginSection("detectObjects");
+
+    TraceRecorder.beginSection("preprocessBitmap");
+    bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+    preprocessor.process(intValues, floatValues, bitmap.getWidth(), bitmap.getHeight());
+    TraceRecorder.endSection();
+
+    TraceRecorder.beginSection("runInference");
+    backend.fillNodeFloat(inputName, 1, inputSize, inputSize, 3, floatValues);
+    backend.run();
+    backend.readNodeFloat(boxesOutputName, boxes);
+    backend.readNodeFloat(scoresOutputName, scores);
+    TraceRecorder.endSection();
+
+    TraceRecorder.beginSection("nonMaxSuppression");
+    final int numDetections = nonMaxSuppression.run(boxes, scores, numBoxes);
+    TraceRecorder.endSection();
+
+    final float width = frameWidth > 0 ? frameWidth : bitmap.getWidth();
+    final float height = frameHeight > 0 ? frameHeight : bitmap.getHeight();
+    final ArrayList<Recognition> recognitions = new ArrayList<Recognition>(numDetections);
+    for (int i = 0; i < numDetections; ++i) {
+      final int box = nonMaxSuppression.getBox(i) * 4;
+      final int index = nonMaxSuppression.getClassIndex(i);
+      final String label = index < labels.size() ? labels.get(index) : ids[index];
+      final RectF location = new RectF(
+          boxes[box + 1] * width,
+          boxes[box] * height,
+          boxes[box + 3] * width,
+          boxes[box + 2] * height);
+      recognitions.add(
+          new Recognition(ids[index], label, nonMaxSuppression.getScore(i), location));
+    }
+    TraceRecorder.endSection(); // "detectObjects"
+    return recognitions;
+  }
+
+  @Override
+  public void close() {
+    preprocessor.close();
+    backend.close();
+  }
+}
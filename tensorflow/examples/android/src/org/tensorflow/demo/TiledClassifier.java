@@ -0,0 +1,248 @@
+/* Copyright 2016 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo;
+
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.RectF;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.tensorflow.demo.env.Logger;
+import org.tensorflow.demo.env.TraceRecorder;
+
+/**
+ * A classifier covering the whole frame instead of only its center square. The frame is cut into
+ * a grid of overlapping tiles, each tile is scaled to the model's input size, and all tiles are
+ * classified together as one batch in a single run. A class is reported with the score and
+ * location of the tile in which it scored highest.
+ *
+ * The model's input node must accept a batch dimension larger than 1.
+ */
+public class TiledClassifier implements Classifier {
+  private static final Logger LOGGER = new Logger();
+
+  // Only return this many results with at least this confidence.
+  private static final int MAX_RESULTS = 3;
+  private static final float THRESHOLD = 0.1f;
+
+  // Config values.
+  private String inputName;
+  private String outputName;
+  private int inputSize;
+  private int numClasses;
+  private int gridColumns;
+  private int gridRows;
+  private float overlap;
+
+  // Pre-allocated buffers.
+  private LabelTable labels;
+  private String[] ids;
+  private Bitmap tileBitmap;
+  private Canvas tileCanvas;
+  private final Matrix tileMatrix = new Matrix();
+  private int[] tilePixels;
+  private float[] batchValues;
+  private float[] batchOutputs;
+  private float[] mergedScores;
+  private int[] bestTiles;
+  private String[] outputNames;
+  private TopKSelector topKSelector;
+  private ImagePreprocessor preprocessor;
+
+  // Tile locations for the last seen frame size.
+  private RectF[] tileRects;
+  private int frameWidth;
+  private int frameHeight;
+
+  // Given at construction, or created from the assets passed to initializeTensorFlow.
+  private InferenceBackend backend;
+
+  /**
+   * Creates a classifier running models with the native TensorFlow library, which are loaded from
+   * the assets passed to initializeTensorFlow.
+   */
+  public TiledClassifier() {}
+
+  public TiledClassifier(final InferenceBackend backend) {
+    this.backend = backend;
+  }
+
+  /**
+   * Initializes a native TensorFlow session for classifying tiles of images.
+   *
+   * @param assetManager The asset manager to be used to load assets.
+   * @param modelFilename The filepath of the model GraphDef protocol buffer.
+   * @param labelFilename The filepath of label file for classes.
+   * @param numClasses The number of classes output by the model.
+   * @param inputSize The input size. Each tile is scaled to inputSize x inputSize.
+   * @param imageMean The assumed mean of the image values.
+   * @param imageStd The assumed std of the image values.
+   * @param inputName The label of the image input node.
+   * @param outputName The label of the output node.
+   * @param gridColumns The number of tiles across the frame.
+   * @param gridRows The number of tiles down the frame.
+   * @param overlap The fraction by which neighboring tiles overlap, in [0, 1).
+   * @return The native return value, 0 indicating success.
+   * @throws IOException
+   */
+  public int initializeTensorFlow(
+      final AssetManager assetManager,
+      final String modelFilename,
+      final String labelFilename,
+      final int numClasses,
+      final int inputSize,
+      final int imageMean,
+      final float imageStd,
+      final String inputName,
+      final String outputName,
+      final int gridColumns,
+      final int gridRows,
+      final float overlap) throws IOException {
+    if (gridColumns < 1 || gridRows < 1) {
+      throw new IllegalArgumentException("The grid needs at least one tile.");
+    }
+    if (overlap < 0.0f || overlap >= 1.0f) {
+      throw new IllegalArgumentException("overlap must be in [0, 1): " + overlap);
+    }
+    if (backend == null) {
+      backend = new JniInferenceBackend(assetManager);
+    }
+    this.inputName = inputName;
+    this.outputName = outputName;
+    this.inputSize = inputSize;
+    this.numClasses = numClasses;
+    this.gridColumns = gridColumns;
+    this.gridRows = gridRows;
+    this.overlap = overlap;
+
+    labels = LabelTable.load(assetManager, labelFilename);
+    LOGGER.i("Read %d, %d specified", labels.size(), numClasses);
+    ids = new String[numClasses];
+    for (int i = 0; i < numClasses; ++i) {
+      ids[i] = Integer.toString(i);
+    }
+
+    // Pre-allocate buffers.
+    final int numTiles = gridColumns * gridRows;
+    tileBitmap = Bitmap.createBitmap(inputSize, inputSize, Config.ARGB_8888);
+    tileCanvas = new Canvas(tileBitmap);
+    tilePixels = new int[inputSize * inputSize];
+    batchValues = new float[numTiles * inputSize * inputSize * 3];
+    batchOutputs = new float[numTiles * numClasses];
+    mergedScores = new float[numClasses];
+    bestTiles = new int[numClasses];
+    outputNames = new String[] {outputName};
+    topKSelector = new TopKSelector(MAX_RESULTS, THRESHOLD);
+    preprocessor = new ImagePreprocessor(
+        imageMean, imageStd, ImagePreprocessor.CHANNEL_ORDER_BGR,
+        Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    final int status = backend.initialize(modelFilename);
+    if (status == 0) {
+      backend.prepareRun(outputNames);
+    }
+    return status;
+  }
+
+  @Override
+  public synchronized List<Recognition> recognizeImage(final Bitmap frame) {
+    TraceRecorder.beginSection("recognizeImageTiled");
+    if (frame.getWidth() != frameWidth || frame.getHeight() != frameHeight) {
+      computeTileRects(frame.getWidth(), frame.getHeight());
+    }
+
+    // Scale each tile to the input size and normalize it into its slot of the batch.
+    TraceRecorder.beginSection("preprocessTiles");
+    final int valuesPerTile = inputSize * inputSize * 3;
+    for (int t = 0; t < tileRects.length; ++t) {
+      final RectF rect = tileRects[t];
+      tileMatrix.reset();
+      tileMatrix.postTranslate(-rect.left, -rect.top);
+      tileMatrix.postScale(inputSize / rect.width(), inputSize / rect.height());
+      tileCanvas.drawBitmap(frame, tileMatrix, null);
+      tileBitmap.getPixels(tilePixels, 0, inputSize, 0, 0, inputSize, inputSize);
+      preprocessor.process(tilePixels, batchValues, t * valuesPerTile, inputSize, inputSize);
+    }
+    TraceRecorder.endSection();
+
+    TraceRecorder.beginSection("runInference");
+    backend.fillNodeFloat(inputName, tileRects.length, inputSize, inputSize, 3, batchValues);
+    backend.run();
+    backend.readNodeFloat(outputName, batchOutputs);
+    TraceRecorder.endSection();
+
+    // Keep the best tile for every class.
+    System.arraycopy(batchOutputs, 0, mergedScores, 0, numClasses);
+    Arrays.fill(bestTiles, 0);
+    for (int t = 1; t < tileRects.length; ++t) {
+      final int base = t * numClasses;
+      for (int c = 0; c < numClasses; ++c) {
+        if (batchOutputs[base + c] > mergedScores[c]) {
+          mergedScores[c] = batchOutputs[base + c];
+          bestTiles[c] = t;
+        }
+      }
+    }
+
+    final int numResults = topKSelector.select(mergedScores);
+    final ArrayList<Recognition> recognitions = new ArrayList<Recognition>(numResults);
+    for (int i = 0; i < numResults; ++i) {
+      final int index = topKSelector.getIndex(i);
+      final String label = index < labels.size() ? labels.get(index) : ids[index];
+      recognitions.add(new Recognition(
+          ids[index], label, mergedScores[index], new RectF(tileRects[bestTiles[index]])));
+    }
+    TraceRecorder.endSection(); // "recognizeImageTiled"
+    return recognitions;
+  }
+
+  /**
+   * Lays out the grid so that the tiles overlap by the configured fraction and together cover
+   * the whole frame.
+   */
+  private void computeTileRects(final int width, final int height) {
+    frameWidth = width;
+    frameHeight = height;
+
+    final float tileWidth = width / (1 + (gridColumns - 1) * (1 - overlap));
+    final float tileHeight = height / (1 + (gridRows - 1) * (1 - overlap));
+    final float stepX = tileWidth * (1 - overlap);
+    final float stepY = tileHeight * (1 - overlap);
+
+    tileRects = new RectF[gridColumns * gridRows];
+    for (int row = 0; row < gridRows; ++row) {
+      for (int col = 0; col < gridColumns; ++col) {
+        final float left = col * stepX;
+        final float top = row * stepY;
+        tileRects[row * gridColumns + col] =
+            new RectF(left, top, left + tileWidth, top + tileHeight);
+      }
+    }
+    LOGGER.i("Using %dx%d tiles of %.0fx%.0f for %dx%d frames",
+        gridColumns, gridRows, tileWidth, tileHeight, width, height);
+  }
+
+  @Override
+  public void close() {
+    preprocessor.close();
+    backend.close();
+  }
+}
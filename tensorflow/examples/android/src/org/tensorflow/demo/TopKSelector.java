@@ -0,0 +1,165 @@
+/* Copyright 2016 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo;
+
+/**
+ * Finds the indices of the k highest scores above a threshold without allocating, using a
+ * fixed-size min-heap of indices. Runs in O(n log k) over n scores. Not thread-safe; the
+ * results are overwritten by the next call to select.
+ */
+public class TopKSelector {
+  private final int maxResults;
+  private final float threshold;
+
+  // Min-heap of the selected indices and their scores while selecting, best first afterwards.
+  private final int[] indices;
+  private final float[] values;
+  private int size;
+
+  /**
+   * @param maxResults The maximum number of indices to select.
+   * @param threshold Only scores strictly above this value are selected.
+   */
+  public TopKSelector(final int maxResults, final float threshold) {
+    if (maxResults <= 0) {
+      throw new IllegalArgumentException("maxResults must be positive: " + maxResults);
+    }
+    this.maxResults = maxResults;
+    this.threshold = threshold;
+    this.indices = new int[maxResults];
+    this.values = new float[maxResults];
+  }
+
+  /**
+   * Selects the best scores. On ties the lower index is preferred.
+   *
+   * @param scores The scores to select from.
+   * @return The number of selected indices, at most maxResults.
+   */
+  public int select(final float[] scores) {
+    return select(scores, 0, 1, scores.length);
+  }
+
+  /**
+   * Selects the best of count scores spaced stride apart, e.g. one column of a row-major matrix.
+   * The selected indices count the strided scores, so index i refers to
+   * scores[offset + i * stride].
+   *
+   * @param scores The array holding the scores.
+   * @param offset The position of the first score.
+   * @param stride The distance between consecutive scores.
+   * @param count The number of scores.
+   * @return The number of selected indices, at most maxResults.
+   */
+  public int select(final float[] scores, final int offset, final int stride, final int count) {
+    size = 0;
+    for (int i = 0; i < count; ++i) {
+      final float score = scores[offset + i * stride];
+      if (score <= threshold) {
+        continue;
+      }
+      if (size < maxResults) {
+        indices[size] = i;
+        values[size] = score;
+        siftUp(size++);
+      } else if (score > values[0]) {
+        indices[0] = i;
+        values[0] = score;
+        siftDown(0, size);
+      }
+    }
+
+    // Heap sort in place: repeatedly move the worst remaining index to the back.
+    for (int end = size - 1; end > 0; --end) {
+      swap(0, end);
+      siftDown(0, end);
+    }
+    return size;
+  }
+
+  /**
+   * Returns the index of the score at the given rank of the last selection, 0 being the best.
+   */
+  public int getIndex(final int rank) {
+    checkRank(rank);
+    return indices[rank];
+  }
+
+  /**
+   * Returns the score at the given rank of the last selection, 0 being the best.
+   */
+  public float getScore(final int rank) {
+    checkRank(rank);
+    return values[rank];
+  }
+
+  /**
+   * Returns the number of indices found by the last selection.
+   */
+  public int size() {
+    return size;
+  }
+
+  private void checkRank(final int rank) {
+    if (rank < 0 || rank >= size) {
+      throw new IndexOutOfBoundsException("rank " + rank + " of " + size);
+    }
+  }
+
+  // Whether heap entry a belongs below entry b in the min-heap, i.e. a is the better result.
+  private boolean isBetter(final int a, final int b) {
+    return values[a] > values[b] || (values[a] == values[b] && indices[a] < indices[b]);
+  }
+
+  private void siftUp(int pos) {
+    while (pos > 0) {
+      final int parent = (pos - 1) / 2;
+      if (!isBetter(parent, pos)) {
+        return;
+      }
+      swap(parent, pos);
+      pos = parent;
+    }
+  }
+
+  private void siftDown(int pos, final int end) {
+    while (true) {
+      final int left = 2 * pos + 1;
+      if (left >= end) {
+        return;
+      }
+      final int right = left + 1;
+      int worst = left;
+      if (right < end && isBetter(left, right)) {
+        worst = right;
+      }
+      if (!isBetter(pos, worst)) {
+        return;
+      }
+      swap(pos, worst);
+      pos = worst;
+    }
+  }
+
+  private void swap(final int a, final int b) {
+    final int tmpIndex = indices[a];
+    indices[a] = indices[b];
+    indices[b] = tmpIndex;
+    final float tmpValue = values[a];
+    values[a] = values[b];
+    values[b] = tmpValue;
+  }
+}
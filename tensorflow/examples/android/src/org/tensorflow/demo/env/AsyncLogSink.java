@@ -0,0 +1,246 @@
+/* Copyright 2016 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import android.util.Log;
+
+/**
+ * Writes log messages on a background thread, for Loggers used on paths that must not wait for
+ * formatting or for the platform log.
+ *
+ * Messages are kept unformatted in a fixed-size ring buffer and formatted and written in batches
+ * by the writer thread. Posting only stores a few references under a short lock, and never waits
+ * for space: when the buffer is full the message is dropped and counted instead. Since formatting
+ * is deferred, arguments must not be modified after they are posted.
+ */
+public final class AsyncLogSink {
+  private static final String TAG = "AsyncLogSink";
+
+  private static final int DEFAULT_CAPACITY = 1024;
+  private static final long DEFAULT_FLUSH_INTERVAL_MS = 200;
+
+  private static AsyncLogSink shared;
+
+  private final int capacity;
+  private final long flushIntervalMs;
+
+  // The ring buffer, guarded by this. Entries [head, head + count) are pending.
+  private final int[] levels;
+  private final String[] tags;
+  private final String[] prefixes;
+  private final Throwable[] throwables;
+  private final String[] formats;
+  private final Object[][] arguments;
+  private final Logger.MessageSupplier[] suppliers;
+  private int head = 0;
+  private int count = 0;
+  private long numDropped = 0;
+  private boolean closed = false;
+
+  // The batch being written, only touched by the writer thread.
+  private final int[] batchLevels;
+  private final String[] batchTags;
+  private final String[] batchPrefixes;
+  private final Throwable[] batchThrowables;
+  private final String[] batchFormats;
+  private final Object[][] batchArguments;
+  private final Logger.MessageSupplier[] batchSuppliers;
+
+  private final Thread writer;
+
+  /**
+   * Returns a sink shared by all Loggers that do not need their own, starting it on first use.
+   */
+  public static synchronized AsyncLogSink getShared() {
+    if (shared == null) {
+      shared = new AsyncLogSink(DEFAULT_CAPACITY, DEFAULT_FLUSH_INTERVAL_MS);
+    }
+    return shared;
+  }
+
+  /**
+   * @param capacity The number of messages that can be pending at once.
+   * @param flushIntervalMs How long the writer waits between batches.
+   */
+  public AsyncLogSink(final int capacity, final long flushIntervalMs) {
+    this.capacity = capacity;
+    this.flushIntervalMs = flushIntervalMs;
+
+    levels = new int[capacity];
+    tags = new String[capacity];
+    prefixes = new String[capacity];
+    throwables = new Throwable[capacity];
+    formats = new String[capacity];
+    arguments = new Object[capacity][];
+    suppliers = new Logger.MessageSupplier[capacity];
+
+    batchLevels = new int[capacity];
+    batchTags = new String[capacity];
+    batchPrefixes = new String[capacity];
+    batchThrowables = new Throwable[capacity];
+    batchFormats = new String[capacity];
+    batchArguments = new Object[capacity][];
+    batchSuppliers = new Logger.MessageSupplier[capacity];
+
+    writer =
+        new Thread(TAG) {
+          @Override
+          public void run() {
+            writeLoop();
+          }
+        };
+    writer.setDaemon(true);
+    writer.setPriority(Thread.MIN_PRIORITY);
+    writer.start();
+  }
+
+  /**
+   * Queues a message. Either format and args or supplier describe the message text.
+   *
+   * @return Whether the message was queued, false if the buffer was full or the sink closed.
+   */
+  boolean post(
+      final int level,
+      final String tag,
+      final String prefix,
+      final Throwable t,
+      final String format,
+      final Object[] args,
+      final Logger.MessageSupplier supplier) {
+    synchronized (this) {
+      if (closed || count == capacity) {
+        ++numDropped;
+        return false;
+      }
+      final int slot = (head + count) % capacity;
+      levels[slot] = level;
+      tags[slot] = tag;
+      prefixes[slot] = prefix;
+      throwables[slot] = t;
+      formats[slot] = format;
+      arguments[slot] = args;
+      suppliers[slot] = supplier;
+      ++count;
+      return true;
+    }
+  }
+
+  /**
+   * Returns the number of messages dropped because the buffer was full.
+   */
+  public synchronized long getNumDropped() {
+    return numDropped;
+  }
+
+  /**
+   * Wakes the writer so that all pending messages are written soon.
+   */
+  public synchronized void flush() {
+    notifyAll();
+  }
+
+  /**
+   * Writes the pending messages and stops the writer. Later messages are dropped.
+   */
+  public void close() {
+    synchronized (this) {
+      closed = true;
+      notifyAll();
+    }
+    try {
+      writer.join();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void writeLoop() {
+    long reportedDropped = 0;
+    while (true) {
+      final int batchSize;
+      final long dropped;
+      final boolean done;
+      synchronized (this) {
+        if (count == 0 && !closed) {
+          try {
+            wait(flushIntervalMs);
+          } catch (final InterruptedException e) {
+            closed = true;
+          }
+        }
+        batchSize = takeBatch();
+        dropped = numDropped;
+        done = closed && count == 0;
+      }
+
+      for (int i = 0; i < batchSize; ++i) {
+        write(i);
+      }
+      if (dropped > reportedDropped) {
+        Logger.println(Log.WARN, TAG, (dropped - reportedDropped) + " log messages dropped", null);
+        reportedDropped = dropped;
+      }
+      if (done) {
+        return;
+      }
+    }
+  }
+
+  // Moves all pending messages into the batch arrays. Must hold the lock.
+  private int takeBatch() {
+    final int batchSize = count;
+    for (int i = 0; i < batchSize; ++i) {
+      final int slot = (head + i) % capacity;
+      batchLevels[i] = levels[slot];
+      batchTags[i] = tags[slot];
+      batchPrefixes[i] = prefixes[slot];
+      batchThrowables[i] = throwables[slot];
+      batchFormats[i] = formats[slot];
+      batchArguments[i] = arguments[slot];
+      batchSuppliers[i] = suppliers[slot];
+
+      // Release the references so that the buffer does not keep arguments alive.
+      tags[slot] = null;
+      prefixes[slot] = null;
+      throwables[slot] = null;
+      formats[slot] = null;
+      arguments[slot] = null;
+      suppliers[slot] = null;
+    }
+    head = (head + batchSize) % capacity;
+    count = 0;
+    return batchSize;
+  }
+
+  private void write(final int i) {
+    String message;
+    try {
+      message = batchPrefixes[i]
+          + Logger.formatMessage(batchFormats[i], batchArguments[i], batchSuppliers[i]);
+    } catch (final RuntimeException e) {
+      // A bad format string must not stop the writer.
+      message = batchPrefixes[i] + batchFormats[i] + " (" + e + ")";
+    }
+    Logger.println(batchLevels[i], batchTags[i], message, batchThrowables[i]);
+
+    batchTags[i] = null;
+    batchPrefixes[i] = null;
+    batchThrowables[i] = null;
+    batchFormats[i] = null;
+    batchArguments[i] = null;
+    batchSuppliers[i] = null;
+  }
+}
@@ -31,6 +31,46 @@ public class ImageUtils {
   @SuppressWarnings("unused")
   private static final Logger LOGGER = new Logger();
 
+  private static final boolean NATIVE_AVAILABLE = loadNativeLibrary();
+
+  // Whether conversions run natively or in JavaImageUtils.
+  private static volatile boolean useNative = NATIVE_AVAILABLE;
+
+  private static boolean loadNativeLibrary() {
+    try {
+      System.loadLibrary("tensorflow_demo");
+      return true;
+    } catch (final UnsatisfiedLinkError e) {
+      LOGGER.w("Native library not available, converting images in Java: %s", e.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * Returns whether the native conversions could be loaded.
+   */
+  public static boolean isNativeAvailable() {
+    return NATIVE_AVAILABLE;
+  }
+
+  /**
+   * Returns whether conversions currently run natively.
+   */
+  public static boolean isUsingNative() {
+    return useNative;
+  }
+
+  /**
+   * Chooses between the native conversions and the Java ones in {@link JavaImageUtils}, for
+   * example to compare them. Native conversions are only used if the library could be loaded.
+   */
+  public static void setUseNative(final boolean useNative) {
+    if (useNative && !NATIVE_AVAILABLE) {
+      LOGGER.w("Native library not available, keeping Java conversions.");
+    }
+    ImageUtils.useNative = useNative && NATIVE_AVAILABLE;
+  }
+
   /**
    * Utility method to compute the allocated size in bytes of a YUV420SP image
    * of the given dimensions.
@@ -87,8 +127,14 @@ public class ImageUtils {
    * @param height The height of the input image.
    * @param halfSize If true, downsample to 50% in each dimension, otherwise not.
    */
-  public static native void convertYUV420SPToARGB8888(
-      byte[] input, int[] output, int width, int height, boolean halfSize);
+  public static void convertYUV420SPToARGB8888(
+      byte[] input, int[] output, int width, int height, boolean halfSize) {
+    if (useNative) {
+      nativeConvertYUV420SPToARGB8888(input, output, width, height, halfSize);
+    } else {
+      JavaImageUtils.convertYUV420SPToARGB8888(input, output, width, height, halfSize);
+    }
+  }
 
   /**
    * Converts YUV420 semi-planar data to ARGB 8888 data using the supplied width
@@ -104,7 +150,7 @@ public class ImageUtils {
    * @param halfSize If true, downsample to 50% in each dimension, otherwise not.
    * @param output A pre-allocated array for the ARGB 8:8:8:8 output data.
    */
-  public static native void convertYUV420ToARGB8888(
+  public static void convertYUV420ToARGB8888(
       byte[] y,
       byte[] u,
       byte[] v,
@@ -114,7 +160,15 @@ public class ImageUtils {
       int yRowStride,
       int uvRowStride,
       int uvPixelStride,
-      boolean halfSize);
+      boolean halfSize) {
+    if (useNative) {
+      nativeConvertYUV420ToARGB8888(
+          y, u, v, output, width, height, yRowStride, uvRowStride, uvPixelStride, halfSize);
+    } else {
+      JavaImageUtils.convertYUV420ToARGB8888(
+          y, u, v, output, width, height, yRowStride, uvRowStride, uvPixelStride, halfSize);
+    }
+  }
 
   /**
    * Converts YUV420 semi-planar data to RGB 565 data using the supplied width
@@ -126,8 +180,14 @@ public class ImageUtils {
    * @param width The width of the input image.
    * @param height The height of the input image.
    */
-  public static native void convertYUV420SPToRGB565(
-      byte[] input, byte[] output, int width, int height);
+  public static void convertYUV420SPToRGB565(
+      byte[] input, byte[] output, int width, int height) {
+    if (useNative) {
+      nativeConvertYUV420SPToRGB565(input, output, width, height);
+    } else {
+      JavaImageUtils.convertYUV420SPToRGB565(input, output, width, height);
+    }
+  }
 
   /**
    * Converts 32-bit ARGB8888 image data to YUV420SP data.  This is useful, for
@@ -139,8 +199,14 @@ public class ImageUtils {
    * @param width The width of the input image.
    * @param height The height of the input image.
    */
-  public static native void convertARGB8888ToYUV420SP(
-      int[] input, byte[] output, int width, int height);
+  public static void convertARGB8888ToYUV420SP(
+      int[] input, byte[] output, int width, int height) {
+    if (useNative) {
+      nativeConvertARGB8888ToYUV420SP(input, output, width, height);
+    } else {
+      JavaImageUtils.convertARGB8888ToYUV420SP(input, output, width, height);
+    }
+  }
 
   /**
    * Converts 16-bit RGB565 image data to YUV420SP data.  This is useful, for
@@ -152,6 +218,38 @@ public class ImageUtils {
    * @param width The width of the input image.
    * @param height The height of the input image.
    */
-  public static native void convertRGB565ToYUV420SP(
+  public static void convertRGB565ToYUV420SP(
+      byte[] input, byte[] output, int width, int height) {
+    if (useNative) {
+      nativeConvertRGB565ToYUV420SP(input, output, width, height);
+    } else {
+      JavaImageUtils.convertRGB565ToYUV420SP(input, output, width, height);
+    }
+  }
+
+  // Native implementations in jni/imageutils_jni.cc.
+
+  private static native void nativeConvertYUV420SPToARGB8888(
+      byte[] input, int[] output, int width, int height, boolean halfSize);
+
+  private static native void nativeConvertYUV420ToARGB8888(
+      byte[] y,
+      byte[] u,
+      byte[] v,
+      int[] output,
+      int width,
+      int height,
+      int yRowStride,
+      int uvRowStride,
+      int uvPixelStride,
+      boolean halfSize);
+
+  private static native void nativeConvertYUV420SPToRGB565(
+      byte[] input, byte[] output, int width, int height);
+
+  private static native void nativeConvertARGB8888ToYUV420SP(
+      int[] input, byte[] output, int width, int height);
+
+  private static native void nativeConvertRGB565ToYUV420SP(
       byte[] input, byte[] output, int width, int height);
 }
@@ -0,0 +1,285 @@
+/* Copyright 2016 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+/**
+ * Pure Java versions of the native image conversions in jni/yuv2rgb.cc and jni/rgb2yuv.cc, used
+ * by {@link ImageUtils} when the native library is missing and usable on any JVM.
+ *
+ * The results match the native code bit for bit, using the same fixed-point coefficients, the
+ * non-Apple chroma order (V before U) and little-endian RGB 565. The one exception is
+ * {@link #convertYUV420ToARGB8888} with halfSize set, which downsamples differently on purpose.
+ * Clamping is done with shifts and masks rather than branches. Large images are split by rows
+ * across a small shared pool of daemon threads, see {@link RowWorkers}.
+ */
+public final class JavaImageUtils {
+  // 2^18 - 1, the largest fixed-point channel value before it is normalized to eight bits.
+  private static final int MAX_CHANNEL_VALUE = 262143;
+
+  private static RowWorkers rowWorkers;
+
+  private JavaImageUtils() {}
+
+  private static synchronized RowWorkers getRowWorkers() {
+    if (rowWorkers == null) {
+      rowWorkers = new RowWorkers(
+          "ImageUtilsThread", Math.min(4, Runtime.getRuntime().availableProcessors()));
+    }
+    return rowWorkers;
+  }
+
+  /**
+   * Converts numRows rows with rows, in parallel if the image is large.
+   *
+   * @param numRows The number of rows, or of row groups that must be converted together.
+   * @param numPixels The number of pixels converted, to decide whether to go parallel.
+   */
+  private static void forEachRow(
+      final int numRows, final int numPixels, final RowWorkers.RowRange rows) {
+    getRowWorkers().forEach(numRows, numPixels, rows);
+  }
+
+  // Clamps a fixed-point channel value to [0, MAX_CHANNEL_VALUE] without branches.
+  private static int clampChannel(int value) {
+    value &= ~(value >> 31);
+    final int over = value - MAX_CHANNEL_VALUE;
+    return MAX_CHANNEL_VALUE + (over & (over >> 31));
+  }
+
+  private static int yuvToArgb(int y, int u, int v) {
+    y -= 16;
+    u -= 128;
+    v -= 128;
+    y &= ~(y >> 31);
+
+    final int r = clampChannel(1192 * y + 1634 * v);
+    final int g = clampChannel(1192 * y - 833 * v - 400 * u);
+    final int b = clampChannel(1192 * y + 2066 * u);
+
+    return 0xff000000 | ((r << 6) & 0xff0000) | ((g >> 2) & 0xff00) | ((b >> 10) & 0xff);
+  }
+
+  private static int yuvToRgb565(int y, int u, int v) {
+    y -= 16;
+    u -= 128;
+    v -= 128;
+    y &= ~(y >> 31);
+
+    final int r = clampChannel(1192 * y + 1634 * v);
+    final int g = clampChannel(1192 * y - 833 * v - 400 * u);
+    final int b = clampChannel(1192 * y + 2066 * u);
+
+    // R is high 5 bits, G is middle 6 bits, and B is low 5 bits.
+    return ((r >> 2) & 0xf800) | ((g >> 7) & 0x07e0) | ((b >> 13) & 0x1f);
+  }
+
+  /**
+   * See {@link ImageUtils#convertYUV420SPToARGB8888}.
+   */
+  public static void convertYUV420SPToARGB8888(
+      final byte[] input, final int[] output, final int width, final int height,
+      final boolean halfSize) {
+    final int uvStart = width * height;
+    if (halfSize) {
+      final int outWidth = width >> 1;
+      final int outHeight = height >> 1;
+      forEachRow(outHeight, width * height, new RowWorkers.RowRange() {
+        @Override
+        public void processRows(final int startRow, final int endRow) {
+          // The native code steps through the luma by two pixels per output pixel plus one full
+          // row per output row, and through the chroma without any row padding.
+          final int yRowStep = 2 * outWidth + width;
+          for (int row = startRow; row < endRow; ++row) {
+            int yIndex = row * yRowStep;
+            int uvIndex = uvStart + row * 2 * outWidth;
+            int out = row * outWidth;
+            for (int x = 0; x < outWidth; ++x) {
+              final int y = ((input[yIndex] & 0xff) + (input[yIndex + 1] & 0xff)
+                  + (input[yIndex + width] & 0xff) + (input[yIndex + width + 1] & 0xff)) >> 2;
+              output[out++] = yuvToArgb(y, input[uvIndex + 1] & 0xff, input[uvIndex] & 0xff);
+              yIndex += 2;
+              uvIndex += 2;
+            }
+          }
+        }
+      });
+      return;
+    }
+
+    forEachRow(height, width * height, new RowWorkers.RowRange() {
+      @Override
+      public void processRows(final int startRow, final int endRow) {
+        for (int row = startRow; row < endRow; ++row) {
+          final int uvRow = uvStart + (row >> 1) * width;
+          int yIndex = row * width;
+          for (int x = 0; x < width; ++x) {
+            final int uvIndex = uvRow + (x & ~1);
+            output[yIndex] = yuvToArgb(
+                input[yIndex] & 0xff, input[uvIndex + 1] & 0xff, input[uvIndex] & 0xff);
+            ++yIndex;
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * See {@link ImageUtils#convertYUV420ToARGB8888}. Unlike the native code, which reads the luma
+   * plane as if it were a whole semi-planar image when halfSize is set, this version downsamples
+   * the planes it is given, averaging each 2x2 block of luma.
+   */
+  public static void convertYUV420ToARGB8888(
+      final byte[] yData,
+      final byte[] uData,
+      final byte[] vData,
+      final int[] output,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final boolean halfSize) {
+    if (halfSize) {
+      final int outWidth = width >> 1;
+      forEachRow(height >> 1, width * height, new RowWorkers.RowRange() {
+        @Override
+        public void processRows(final int startRow, final int endRow) {
+          for (int row = startRow; row < endRow; ++row) {
+            int yIndex = 2 * row * yRowStride;
+            int uvIndex = row * uvRowStride;
+            int out = row * outWidth;
+            for (int x = 0; x < outWidth; ++x) {
+              final int y = ((yData[yIndex] & 0xff) + (yData[yIndex + 1] & 0xff)
+                  + (yData[yIndex + yRowStride] & 0xff)
+                  + (yData[yIndex + yRowStride + 1] & 0xff)) >> 2;
+              output[out++] = yuvToArgb(y, uData[uvIndex] & 0xff, vData[uvIndex] & 0xff);
+              yIndex += 2;
+              uvIndex += uvPixelStride;
+            }
+          }
+        }
+      });
+      return;
+    }
+
+    forEachRow(height, width * height, new RowWorkers.RowRange() {
+      @Override
+      public void processRows(final int startRow, final int endRow) {
+        for (int row = startRow; row < endRow; ++row) {
+          final int yRow = row * yRowStride;
+          final int uvRow = (row >> 1) * uvRowStride;
+          int out = row * width;
+          for (int x = 0; x < width; ++x) {
+            final int uvIndex = uvRow + (x >> 1) * uvPixelStride;
+            output[out++] =
+                yuvToArgb(yData[yRow + x] & 0xff, uData[uvIndex] & 0xff, vData[uvIndex] & 0xff);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * See {@link ImageUtils#convertYUV420SPToRGB565}.
+   */
+  public static void convertYUV420SPToRGB565(
+      final byte[] input, final byte[] output, final int width, final int height) {
+    final int uvStart = width * height;
+    forEachRow(height, width * height, new RowWorkers.RowRange() {
+      @Override
+      public void processRows(final int startRow, final int endRow) {
+        for (int row = startRow; row < endRow; ++row) {
+          final int uvRow = uvStart + (row >> 1) * width;
+          int yIndex = row * width;
+          for (int x = 0; x < width; ++x) {
+            final int uvIndex = uvRow + (x & ~1);
+            final int rgb = yuvToRgb565(
+                input[yIndex] & 0xff, input[uvIndex + 1] & 0xff, input[uvIndex] & 0xff);
+            output[2 * yIndex] = (byte) rgb;
+            output[2 * yIndex + 1] = (byte) (rgb >> 8);
+            ++yIndex;
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * See {@link ImageUtils#convertARGB8888ToYUV420SP}.
+   */
+  public static void convertARGB8888ToYUV420SP(
+      final int[] input, final byte[] output, final int width, final int height) {
+    // Rows are converted in pairs, as both rows of a pair add to the same chroma samples.
+    forEachRow((height + 1) / 2, width * height, new RowWorkers.RowRange() {
+      @Override
+      public void processRows(final int startPair, final int endPair) {
+        for (int row = 2 * startPair; row < Math.min(height, 2 * endPair); ++row) {
+          final int rowStart = row * width;
+          final boolean firstRowOfBlock = (row & 1) == 0;
+          for (int x = 0; x < width; ++x) {
+            final int rgb = input[rowStart + x];
+            writeYuv(output, width, height, x, row, firstRowOfBlock,
+                (rgb >> 16) & 0xff, (rgb >> 8) & 0xff, rgb & 0xff);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * See {@link ImageUtils#convertRGB565ToYUV420SP}.
+   */
+  public static void convertRGB565ToYUV420SP(
+      final byte[] input, final byte[] output, final int width, final int height) {
+    forEachRow((height + 1) / 2, width * height, new RowWorkers.RowRange() {
+      @Override
+      public void processRows(final int startPair, final int endPair) {
+        for (int row = 2 * startPair; row < Math.min(height, 2 * endPair); ++row) {
+          final int rowStart = row * width;
+          final boolean firstRowOfBlock = (row & 1) == 0;
+          for (int x = 0; x < width; ++x) {
+            final int i = 2 * (rowStart + x);
+            final int rgb = (input[i] & 0xff) | ((input[i + 1] & 0xff) << 8);
+            final int r5 = (rgb >> 11) & 0x1f;
+            final int g6 = (rgb >> 5) & 0x3f;
+            final int b5 = rgb & 0x1f;
+
+            // Fill the low bits with a copy of the high bits to stretch across 0 - 255.
+            writeYuv(output, width, height, x, row, firstRowOfBlock,
+                r5 << 3 | r5 >> 2, g6 << 2 | g6 >> 4, b5 << 3 | b5 >> 2);
+          }
+        }
+      }
+    });
+  }
+
+  // Writes the luma of one pixel and adds its share to the chroma of its 2x2 block, which is
+  // cleared by the block's first pixel.
+  private static void writeYuv(
+      final byte[] output, final int width, final int height, final int x, final int y,
+      final boolean firstRowOfBlock, final int r, final int g, final int b) {
+    output[y * width + x] = (byte) (((66 * r + 129 * g + 25 * b + 128) >> 8) + 16);
+
+    // Odd widths get rounded up so that UV blocks on the side don't get cut off.
+    final int offset = width * height + 2 * ((y >> 1) * ((width + 1) >> 1) + (x >> 1));
+    final int v = ((112 * r - 94 * g - 18 * b + 128) >> 10) + 32;
+    final int u = ((-38 * r - 74 * g + 112 * b + 128) >> 10) + 32;
+    // Keep the previous sum unless this is the first pixel of the block.
+    final int keep = firstRowOfBlock && (x & 1) == 0 ? 0 : 0xff;
+    output[offset] = (byte) ((output[offset] & keep) + v);
+    output[offset + 1] = (byte) ((output[offset + 1] & keep) + u);
+  }
+}
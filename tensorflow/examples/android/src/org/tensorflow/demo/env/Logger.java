@@ -17,16 +17,35 @@ package org.tensorflow.demo.env;
 
 import android.util.Log;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.HashSet;
 import java.util.Set;
 
 /**
  * Wrapper for the platform log function, allows convenient message prefixing and log disabling.
+ *
+ * Messages are only formatted once their level is known to be enabled. Where even building the
+ * arguments is too costly for a hot path, pass a {@link MessageSupplier} or check
+ * {@link #isLoggable} first. Loggers given an {@link AsyncLogSink} hand their messages to its
+ * writer thread instead of formatting and writing them on the calling thread. Off-device, where
+ * android.util.Log is unavailable, messages at or above minLogLevel are written to stderr.
  */
 public final class Logger {
+  /**
+   * Produces the text of a message, only called if the message is logged.
+   */
+  public interface MessageSupplier {
+    String get();
+  }
+
   private static final String DEFAULT_TAG = "tensorflow";
   private static final int DEFAULT_MIN_LOG_LEVEL = Log.DEBUG;
 
+  private static final boolean PLATFORM_LOG_AVAILABLE = isPlatformLogAvailable();
+  // Level letters for the stderr fallback, from Log.VERBOSE to Log.ASSERT.
+  private static final String LEVEL_LETTERS = "VDIWEA";
+
   // Classes to be ignored when examining the stack trace
   private static final Set<String> IGNORED_CLASS_NAMES;
 
@@ -37,9 +56,18 @@ public final class Logger {
     IGNORED_CLASS_NAMES.add(Logger.class.getCanonicalName());
   }
 
+  // Incremented by refreshLogLevels() to make every Logger read the platform setting again.
+  private static volatile int levelGeneration = 0;
+
   private final String tag;
   private final String messagePrefix;
   private int minLogLevel = DEFAULT_MIN_LOG_LEVEL;
+  // The lowest level logged, either because of minLogLevel or because the platform enables it for
+  // the tag. Log.isLoggable reads a system property, which is too slow to do for every message, so
+  // it is only consulted when minLogLevel is set or the levels are refreshed.
+  private volatile int effectiveMinLogLevel;
+  private volatile int effectiveLevelGeneration;
+  private volatile AsyncLogSink asyncSink;
 
   /**
    * Creates a Logger using the class name as the message prefix.
@@ -71,6 +99,7 @@ public final class Logger {
     this.tag = tag;
     final String prefix = messagePrefix == null ? getCallerSimpleName() : messagePrefix;
     this.messagePrefix = (prefix.length() > 0) ? prefix + ": " : prefix;
+    setMinLogLevel(minLogLevel);
   }
 
   /**
@@ -85,15 +114,55 @@ public final class Logger {
    */
   public Logger(final int minLogLevel) {
     this(DEFAULT_TAG, null);
-    this.minLogLevel = minLogLevel;
+    setMinLogLevel(minLogLevel);
   }
 
+  /**
+   * Sets the lowest level that is logged regardless of the platform setting. The platform setting
+   * for the tag is also read again.
+   */
   public void setMinLogLevel(final int minLogLevel) {
     this.minLogLevel = minLogLevel;
+    refreshLogLevel();
+  }
+
+  /**
+   * Reads the platform setting for the tag again, e.g. after
+   * <pre>adb shell setprop log.tag.&lt;tag&gt; VERBOSE</pre>.
+   */
+  public void refreshLogLevel() {
+    effectiveLevelGeneration = levelGeneration;
+    int level = minLogLevel;
+    for (int l = Log.VERBOSE; PLATFORM_LOG_AVAILABLE && l < minLogLevel; ++l) {
+      if (Log.isLoggable(tag, l)) {
+        level = l;
+        break;
+      }
+    }
+    effectiveMinLogLevel = level;
+  }
+
+  /**
+   * Makes this Logger write through the given sink, or directly again if null.
+   */
+  public void setAsyncSink(final AsyncLogSink asyncSink) {
+    this.asyncSink = asyncSink;
+  }
+
+  /**
+   * Makes every Logger read the platform setting for its tag again before its next message, so
+   * that log.tag properties changed while the app runs take effect. Cheap enough to call from
+   * lifecycle callbacks such as onResume.
+   */
+  public static synchronized void refreshLogLevels() {
+    ++levelGeneration;
   }
 
   public boolean isLoggable(final int logLevel) {
-    return logLevel >= minLogLevel || Log.isLoggable(tag, logLevel);
+    if (effectiveLevelGeneration != levelGeneration) {
+      refreshLogLevel();
+    }
+    return logLevel >= effectiveMinLogLevel;
   }
 
   /**
@@ -125,67 +194,152 @@ public final class Logger {
     return Logger.class.getSimpleName();
   }
 
-  private String toMessage(final String format, final Object... args) {
-    return messagePrefix + (args.length > 0 ? String.format(format, args) : format);
+  /**
+   * Builds the text of a message, formatting only if there are arguments.
+   */
+  static String formatMessage(
+      final String format, final Object[] args, final MessageSupplier supplier) {
+    if (supplier != null) {
+      return supplier.get();
+    }
+    return args != null && args.length > 0 ? String.format(format, args) : format;
+  }
+
+  private static boolean isPlatformLogAvailable() {
+    try {
+      Log.isLoggable(DEFAULT_TAG, Log.DEBUG);
+      return true;
+    } catch (final Throwable t) {
+      // Not on Android, or running against the stub android.jar.
+      return false;
+    }
+  }
+
+  static void println(final int level, final String tag, final String message, final Throwable t) {
+    if (PLATFORM_LOG_AVAILABLE) {
+      Log.println(level, tag, t == null ? message : message + '\n' + Log.getStackTraceString(t));
+      return;
+    }
+    final StringWriter text = new StringWriter();
+    final PrintWriter writer = new PrintWriter(text);
+    writer.print(level >= Log.VERBOSE && level <= Log.ASSERT
+        ? LEVEL_LETTERS.charAt(level - Log.VERBOSE) : '?');
+    writer.print('/');
+    writer.print(tag);
+    writer.print(": ");
+    writer.println(message);
+    if (t != null) {
+      t.printStackTrace(writer);
+    }
+    writer.flush();
+    System.err.print(text);
+  }
+
+  private void log(final int level, final Throwable t, final String format, final Object[] args) {
+    final AsyncLogSink sink = asyncSink;
+    if (sink != null) {
+      sink.post(level, tag, messagePrefix, t, format, args, null);
+    } else {
+      println(level, tag, messagePrefix + formatMessage(format, args, null), t);
+    }
+  }
+
+  private void log(final int level, final MessageSupplier supplier) {
+    final AsyncLogSink sink = asyncSink;
+    if (sink != null) {
+      sink.post(level, tag, messagePrefix, null, null, null, supplier);
+    } else {
+      println(level, tag, messagePrefix + supplier.get(), null);
+    }
   }
 
   public void v(final String format, final Object... args) {
     if (isLoggable(Log.VERBOSE)) {
-      Log.v(tag, toMessage(format, args));
+      log(Log.VERBOSE, null, format, args);
     }
   }
 
   public void v(final Throwable t, final String format, final Object... args) {
     if (isLoggable(Log.VERBOSE)) {
-      Log.v(tag, toMessage(format, args), t);
+      log(Log.VERBOSE, t, format, args);
+    }
+  }
+
+  public void v(final MessageSupplier supplier) {
+    if (isLoggable(Log.VERBOSE)) {
+      log(Log.VERBOSE, supplier);
     }
   }
 
   public void d(final String format, final Object... args) {
     if (isLoggable(Log.DEBUG)) {
-      Log.d(tag, toMessage(format, args));
+      log(Log.DEBUG, null, format, args);
     }
   }
 
   public void d(final Throwable t, final String format, final Object... args) {
     if (isLoggable(Log.DEBUG)) {
-      Log.d(tag, toMessage(format, args), t);
+      log(Log.DEBUG, t, format, args);
+    }
+  }
+
+  public void d(final MessageSupplier supplier) {
+    if (isLoggable(Log.DEBUG)) {
+      log(Log.DEBUG, supplier);
     }
   }
 
   public void i(final String format, final Object... args) {
     if (isLoggable(Log.INFO)) {
-      Log.i(tag, toMessage(format, args));
+      log(Log.INFO, null, format, args);
     }
   }
 
   public void i(final Throwable t, final String format, final Object... args) {
     if (isLoggable(Log.INFO)) {
-      Log.i(tag, toMessage(format, args), t);
+      log(Log.INFO, t, format, args);
+    }
+  }
+
+  public void i(final MessageSupplier supplier) {
+    if (isLoggable(Log.INFO)) {
+      log(Log.INFO, supplier);
     }
   }
 
   public void w(final String format, final Object... args) {
     if (isLoggable(Log.WARN)) {
-      Log.w(tag, toMessage(format, args));
+      log(Log.WARN, null, format, args);
     }
   }
 
   public void w(final Throwable t, final String format, final Object... args) {
     if (isLoggable(Log.WARN)) {
-      Log.w(tag, toMessage(format, args), t);
+      log(Log.WARN, t, format, args);
+    }
+  }
+
+  public void w(final MessageSupplier supplier) {
+    if (isLoggable(Log.WARN)) {
+      log(Log.WARN, supplier);
     }
   }
 
   public void e(final String format, final Object... args) {
     if (isLoggable(Log.ERROR)) {
-      Log.e(tag, toMessage(format, args));
+      log(Log.ERROR, null, format, args);
     }
   }
 
   public void e(final Throwable t, final String format, final Object... args) {
     if (isLoggable(Log.ERROR)) {
-      Log.e(tag, toMessage(format, args), t);
+      log(Log.ERROR, t, format, args);
+    }
+  }
+
+  public void e(final MessageSupplier supplier) {
+    if (isLoggable(Log.ERROR)) {
+      log(Log.ERROR, supplier);
     }
   }
 }
@@ -0,0 +1,159 @@
+/* Copyright 2016 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Splits the rows of an image across a small pool of daemon threads, with the calling thread
+ * processing the first chunk. Shared by the image conversions and preprocessing, whose rows can
+ * be processed independently of each other.
+ */
+public final class RowWorkers {
+  /** Processes the rows [startRow, endRow) of an image. Called concurrently for disjoint rows. */
+  public interface RowRange {
+    void processRows(int startRow, int endRow);
+  }
+
+  // Images with fewer pixels than this are not worth handing to other threads.
+  private static final int MIN_PARALLEL_PIXELS = 128 * 128;
+
+  // One task per worker, reused by every call so that no garbage is created per image.
+  private final ChunkTask[] tasks;
+  // Held while the tasks are in use. A call finding them busy processes all rows itself.
+  private final ReentrantLock tasksLock = new ReentrantLock();
+  private final ExecutorService workers;
+
+  /** Processes one chunk of the current image on a worker. */
+  private static final class ChunkTask implements Runnable {
+    RowRange rows;
+    int startRow;
+    int endRow;
+    CountDownLatch done;
+
+    @Override
+    public void run() {
+      try {
+        rows.processRows(startRow, endRow);
+      } finally {
+        done.countDown();
+      }
+    }
+  }
+
+  /**
+   * @param threadName The name of the worker threads.
+   * @param numThreads The number of threads working on large images, including the caller's.
+   */
+  public RowWorkers(final String threadName, final int numThreads) {
+    if (numThreads < 1) {
+      throw new IllegalArgumentException("numThreads must be positive: " + numThreads);
+    }
+    tasks = new ChunkTask[numThreads - 1];
+    for (int i = 0; i < tasks.length; ++i) {
+      tasks[i] = new ChunkTask();
+    }
+    workers = numThreads > 1
+        ? Executors.newFixedThreadPool(numThreads - 1, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+              final Thread thread = new Thread(r, threadName);
+              thread.setDaemon(true);
+              return thread;
+            }
+          })
+        : null;
+  }
+
+  /**
+   * Processes numRows rows, in parallel if the image is large, and returns once all are done.
+   *
+   * @param numRows The number of rows, or of row groups that must be processed together.
+   * @param numPixels The number of pixels processed, to decide whether to go parallel.
+   * @param rows Processes the rows.
+   */
+  public void forEach(final int numRows, final int numPixels, final RowRange rows) {
+    final int numChunks = workers == null || numPixels < MIN_PARALLEL_PIXELS
+        ? 1
+        : Math.min(tasks.length + 1, numRows);
+    if (numChunks <= 1 || !tasksLock.tryLock()) {
+      rows.processRows(0, numRows);
+      return;
+    }
+
+    final CountDownLatch done = new CountDownLatch(numChunks - 1);
+    final int rowsPerChunk = (numRows + numChunks - 1) / numChunks;
+    int numStarted = 0;
+    try {
+      // Hand all chunks but the first to the workers and process the first one here.
+      while (numStarted < numChunks - 1) {
+        final ChunkTask task = tasks[numStarted++];
+        task.rows = rows;
+        task.startRow = numStarted * rowsPerChunk;
+        task.endRow = Math.min(numRows, (numStarted + 1) * rowsPerChunk);
+        task.done = done;
+        try {
+          workers.execute(task);
+        } catch (final RejectedExecutionException e) {
+          // Closed; the caller does the work itself.
+          task.run();
+        }
+      }
+      rows.processRows(0, Math.min(numRows, rowsPerChunk));
+    } finally {
+      // Chunks that were never started, as a chunk processed here threw, are not waited for.
+      for (int i = numStarted; i < numChunks - 1; ++i) {
+        done.countDown();
+      }
+      awaitUninterruptibly(done);
+      for (final ChunkTask task : tasks) {
+        task.rows = null;
+      }
+      tasksLock.unlock();
+    }
+  }
+
+  // The tasks are reused by the next call, so they are waited for even if the thread is
+  // interrupted. The chunks are short, and the interrupt is kept for the caller to handle.
+  private static void awaitUninterruptibly(final CountDownLatch done) {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        done.await();
+        break;
+      } catch (final InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Stops the worker threads. Later calls process all rows on the calling thread.
+   */
+  public void close() {
+    if (workers != null) {
+      workers.shutdown();
+    }
+  }
+}
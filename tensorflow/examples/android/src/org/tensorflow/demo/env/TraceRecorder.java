@@ -0,0 +1,235 @@
+/* Copyright 2016 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Drop-in replacement for the section calls of android.os.Trace which can also record the
+ * sections in process, so timelines are available without systrace attached and on plain JVMs.
+ *
+ * Sections are always forwarded to android.os.Trace where that class works. While recording, each
+ * begin and end is also stored with its nanosecond timestamp and thread id in a ring buffer that
+ * is allocated when recording starts. Writers claim slots with a single atomic increment and never
+ * block; once the buffer is full the oldest events are overwritten. {@link #dump} writes the events
+ * in the Chrome trace event format, to be opened with chrome://tracing.
+ */
+public final class TraceRecorder {
+  private static final boolean PLATFORM_TRACE_AVAILABLE = isPlatformTraceAvailable();
+
+  // The buffer being recorded into, or null when not recording.
+  private static volatile Buffer buffer;
+  // The buffer of the latest recording, kept after recording stops for dumping.
+  private static volatile Buffer lastBuffer;
+
+  private TraceRecorder() {}
+
+  // The events of one recording. Each slot's sequence number is reset before and written after its
+  // data, so a reader can tell whether the slot holds a complete event of the expected round.
+  //
+  // All fields are written and read through atomic arrays. Their volatile accesses are totally
+  // ordered, so a data write cannot become visible before the reset preceding it, and a data read
+  // cannot be reordered after the sequence check following it. If a reader sees the expected
+  // sequence both before and after reading the data, no writer of a later round has reset the slot
+  // in between, and the data is that of the expected round. Plain arrays with a volatile sequence
+  // would not be enough: a volatile write only keeps earlier writes before it, not later ones.
+  private static final class Buffer {
+    final int mask;
+    final long startNs = System.nanoTime();
+    final AtomicLong nextSequence = new AtomicLong();
+    final AtomicLongArray sequences;
+    final AtomicLongArray timestampsNs;
+    final AtomicLongArray threadIds;
+    // The section name for begin events, null for end events.
+    final AtomicReferenceArray<String> names;
+
+    Buffer(final int capacity) {
+      mask = capacity - 1;
+      sequences = new AtomicLongArray(capacity);
+      for (int i = 0; i < capacity; ++i) {
+        sequences.set(i, -1);
+      }
+      timestampsNs = new AtomicLongArray(capacity);
+      threadIds = new AtomicLongArray(capacity);
+      names = new AtomicReferenceArray<String>(capacity);
+    }
+
+    void record(final String name) {
+      final long sequence = nextSequence.getAndIncrement();
+      final int slot = (int) sequence & mask;
+      sequences.set(slot, -1);
+      timestampsNs.set(slot, System.nanoTime());
+      threadIds.set(slot, Thread.currentThread().getId());
+      names.set(slot, name);
+      // Published last, once the data is complete.
+      sequences.set(slot, sequence);
+    }
+  }
+
+  private static boolean isPlatformTraceAvailable() {
+    try {
+      android.os.Trace.beginSection("TraceRecorder");
+      android.os.Trace.endSection();
+      return true;
+    } catch (final Throwable t) {
+      // Not on Android, on a release without Trace, or running against the stub android.jar.
+      return false;
+    }
+  }
+
+  /**
+   * Starts recording into a new buffer, discarding any previous recording.
+   *
+   * @param capacity The number of events kept, rounded up to a power of two.
+   */
+  public static void startRecording(final int capacity) {
+    int size = 1;
+    while (size < capacity) {
+      size <<= 1;
+    }
+    lastBuffer = new Buffer(size);
+    buffer = lastBuffer;
+  }
+
+  /**
+   * Stops recording. Events recorded so far can still be dumped.
+   */
+  public static void stopRecording() {
+    buffer = null;
+  }
+
+  public static boolean isRecording() {
+    return buffer != null;
+  }
+
+  /**
+   * Begins a section, like android.os.Trace.beginSection.
+   */
+  public static void beginSection(final String sectionName) {
+    if (PLATFORM_TRACE_AVAILABLE) {
+      android.os.Trace.beginSection(sectionName);
+    }
+    final Buffer current = buffer;
+    if (current != null) {
+      current.record(sectionName);
+    }
+  }
+
+  /**
+   * Ends the innermost section begun on this thread, like android.os.Trace.endSection.
+   */
+  public static void endSection() {
+    final Buffer current = buffer;
+    if (current != null) {
+      current.record(null);
+    }
+    if (PLATFORM_TRACE_AVAILABLE) {
+      android.os.Trace.endSection();
+    }
+  }
+
+  /**
+   * Writes the events of the latest recording as Chrome trace JSON, stopping it if it is still
+   * running. Timestamps are relative to the start of the recording. Events overwritten in the
+   * ring buffer are missing, so the oldest sections may appear without their beginning.
+   */
+  public static void dump(final Writer writer) throws IOException {
+    buffer = null;
+    final Buffer recorded = lastBuffer;
+    if (recorded == null) {
+      writer.write("{\"traceEvents\":[]}\n");
+      return;
+    }
+
+    final long end = recorded.nextSequence.get();
+    final long start = Math.max(0, end - recorded.mask - 1);
+    writer.write("{\"traceEvents\":[");
+    boolean first = true;
+    for (long sequence = start; sequence < end; ++sequence) {
+      final int slot = (int) sequence & recorded.mask;
+      if (recorded.sequences.get(slot) != sequence) {
+        // Still being written by a thread that was in a section when recording stopped.
+        continue;
+      }
+      final String name = recorded.names.get(slot);
+      final long threadId = recorded.threadIds.get(slot);
+      final long timestampNs = recorded.timestampsNs.get(slot) - recorded.startNs;
+      if (recorded.sequences.get(slot) != sequence) {
+        // Overwritten by a later round while being read.
+        continue;
+      }
+
+      if (!first) {
+        writer.write(",");
+      }
+      first = false;
+      writer.write("\n{\"ph\":\"");
+      writer.write(name != null ? "B" : "E");
+      writer.write("\",\"pid\":0,\"tid\":");
+      writer.write(Long.toString(threadId));
+      writer.write(",\"ts\":");
+      // Chrome expects microseconds.
+      writer.write(Long.toString(timestampNs / 1000));
+      writer.write(".");
+      writer.write(String.format("%03d", timestampNs % 1000));
+      if (name != null) {
+        writer.write(",\"name\":");
+        writeJsonString(writer, name);
+      }
+      writer.write("}");
+    }
+    writer.write("\n]}\n");
+    writer.flush();
+  }
+
+  /**
+   * Writes the recorded events to a file, see {@link #dump(Writer)}.
+   */
+  public static void dump(final File file) throws IOException {
+    final Writer writer =
+        new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+    try {
+      dump(writer);
+    } finally {
+      writer.close();
+    }
+  }
+
+  private static void writeJsonString(final Writer writer, final String value)
+      throws IOException {
+    writer.write('"');
+    for (int i = 0; i < value.length(); ++i) {
+      final char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        writer.write('\\');
+        writer.write(c);
+      } else if (c < 0x20) {
+        writer.write(String.format("\\u%04x", (int) c));
+      } else {
+        writer.write(c);
+      }
+    }
+    writer.write('"');
+  }
+}